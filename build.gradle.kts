@@ -6,12 +6,19 @@ plugins {
 group = "io.github.fukkitmc"
 version = "2.1.4"
 
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
 repositories {
     jcenter()
 }
 
 dependencies {
     api("org.ow2.asm", "asm", "8.0.1")
+    api("org.ow2.asm", "asm-tree", "8.0.1")
+    compileOnly("org.ow2.asm", "asm-commons", "8.0.1")
     compileOnly("com.google.code.gson", "gson", "2.8.6")
 }
 
@@ -22,6 +22,8 @@ import io.github.fukkitmc.gloom.definitions.ClassDefinition;
 import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
 import io.github.fukkitmc.gloom.definitions.SyntheticField;
 import io.github.fukkitmc.gloom.definitions.SyntheticMethod;
+import io.github.fukkitmc.gloom.jfr.DefinitionsLoadEvent;
+import io.github.fukkitmc.gloom.jfr.Events;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
@@ -47,8 +49,53 @@ public class DefinitionSerializer {
         return GSON.toJson(definitions.getDefinitions());
     }
 
+    /**
+     * @throws JsonParseException If the json is malformed, or a field has an atomic accessor its type does not support
+     *                            or a value which does not fit its type
+     */
     public static GloomDefinitions fromString(String json) {
-        return new GloomDefinitions(GSON.fromJson(json, CLASS_SET));
+        if (!Events.AVAILABLE) {
+            return parse(json);
+        }
+
+        DefinitionsLoadEvent event = new DefinitionsLoadEvent();
+        event.begin();
+        GloomDefinitions definitions = parse(json);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = "json";
+            event.size = json.length();
+            event.definitions = definitions.getNames().size();
+            event.commit();
+        }
+
+        return definitions;
+    }
+
+    private static GloomDefinitions parse(String json) {
+        Set<ClassDefinition> definitions;
+
+        try {
+            definitions = GSON.fromJson(json, CLASS_SET);
+        } catch (IllegalArgumentException e) {
+            // Thrown by the values of synthetic fields as they are hashed into their sets
+            throw new JsonParseException("Invalid synthetic field", e);
+        }
+
+        // Gson fills in fields after construction, bypassing the constructor's checks
+        for (ClassDefinition definition : definitions) {
+            for (SyntheticField field : definition.getSyntheticFields()) {
+                try {
+                    SyntheticField.checkAtomicAccessors(field.getName(), field.getType(), field.getAtomicAccessors());
+                    field.getValue();
+                } catch (IllegalArgumentException e) {
+                    throw new JsonParseException("Invalid synthetic field in " + definition.getName(), e);
+                }
+            }
+        }
+
+        return new GloomDefinitions(definitions);
     }
 
     private static class TypeSerializer implements JsonSerializer<Type>, JsonDeserializer<Type> {
@@ -73,7 +120,7 @@ public class DefinitionSerializer {
     private static class SyntheticFieldInstanceCreator implements InstanceCreator<SyntheticField> {
         @Override
         public SyntheticField createInstance(java.lang.reflect.Type type) {
-            return new SyntheticField(Opcodes.ACC_PUBLIC, null, null, null, null, null);
+            return new SyntheticField(Opcodes.ACC_PUBLIC, null, null, null, null, null, new HashSet<>());
         }
     }
 
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import org.objectweb.asm.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An index of the hierarchy and members of a set of classes, built in parallel and resolving references without
+ * loading classes
+ *
+ * <p>Mixins, recognised by their {@code @Mixin} annotation, are merged into their targets, as they would be at
+ * runtime. Classes outside the set are read on demand from a library, such as {@link #systemLibrary() the JDK}, and
+ * classes found in neither, or too new for ASM to read, are unknown
+ */
+public class ClassIndex implements InheritanceProvider {
+
+    private static final String MIXIN = "Lorg/spongepowered/asm/mixin/Mixin;";
+    private static final Entry MISSING = new Entry(null, 0, null, new String[0], null);
+
+    private final Map<String, Entry> classes;
+    private final Map<String, String> mixins;
+    private final Function<String, byte[]> library;
+    private final ConcurrentMap<String, Entry> libraryClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> commonSuperClasses = new ConcurrentHashMap<>();
+
+    private ClassIndex(Map<String, Entry> classes, Map<String, String> mixins, Function<String, byte[]> library) {
+        this.classes = classes;
+        this.mixins = mixins;
+        this.library = library;
+    }
+
+    /**
+     * @param classes The classes
+     * @param library Gives the bytes of classes outside the set by internal name, or null if unavailable
+     * @return The index of the classes
+     */
+    public static ClassIndex build(Collection<byte[]> classes, Function<String, byte[]> library) {
+        List<Entry> entries = classes.parallelStream().map(ClassIndex::read).collect(Collectors.toList());
+        Map<String, Entry> index = new HashMap<>();
+        Map<String, String> mixins = new HashMap<>();
+
+        for (Entry entry : entries) {
+            if (entry.mixinTarget == null) {
+                index.put(entry.name, entry);
+            }
+        }
+
+        for (Entry entry : entries) {
+            String target = entry.mixinTarget;
+
+            if (target != null) {
+                mixins.put(entry.name, target);
+                Entry merged = index.get(target);
+
+                if (merged != null) {
+                    index.put(target, merged.merge(entry));
+                }
+            }
+        }
+
+        return new ClassIndex(index, mixins, library == null ? name -> null : library);
+    }
+
+    public static ClassIndex build(Collection<byte[]> classes) {
+        return build(classes, null);
+    }
+
+    /**
+     * @return A library reading classes from the resources of the system class loader, which includes the JDK
+     */
+    public static Function<String, byte[]> systemLibrary() {
+        return name -> {
+            try (InputStream stream = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+                return stream == null ? null : stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private static Entry read(byte[] bytes) {
+        Reader reader = new Reader();
+        new ClassReader(bytes).accept(reader, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return reader.entry;
+    }
+
+    /**
+     * @param name The internal name
+     * @return Whether the class was part of the indexed set, rather than the library
+     */
+    public boolean contains(String name) {
+        return classes.containsKey(name);
+    }
+
+    /**
+     * @return The internal names of the indexed classes, excluding mixins
+     */
+    public Set<String> getClasses() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    /**
+     * @param name The internal name of a class
+     * @return The target the class is merged into, if it is a mixin, or null
+     */
+    public String getMixinTarget(String name) {
+        return mixins.get(name);
+    }
+
+    /**
+     * @param name The internal name
+     * @return The class, or null if it is unknown
+     */
+    Entry get(String name) {
+        Entry entry = classes.get(name);
+
+        if (entry == null) {
+            entry = libraryClasses.computeIfAbsent(name, n -> {
+                byte[] bytes = library.apply(n);
+
+                if (bytes == null) {
+                    return MISSING;
+                }
+
+                try {
+                    return read(bytes);
+                } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                    // Newer than the ASM version in use understands
+                    return MISSING;
+                }
+            });
+        }
+
+        return entry == MISSING ? null : entry;
+    }
+
+    /**
+     * @param name The internal name
+     * @return Whether the class is an interface, or null if it is unknown
+     */
+    public Boolean isInterface(String name) {
+        Entry entry = get(name);
+        return entry == null ? null : (entry.access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @param name The internal name
+     * @return The super class, or null if it is unknown or {@code java/lang/Object}
+     */
+    public String getSuperName(String name) {
+        Entry entry = get(name);
+        return entry == null ? null : entry.superName;
+    }
+
+    /**
+     * Finds the closest common super class of two classes, like {@link ClassWriter#getCommonSuperClass}, memoized
+     *
+     * @param type1 The internal name of a class
+     * @param type2 The internal name of another class
+     * @return The internal name of the common super class, {@code java/lang/Object} if either is an interface
+     * @throws TypeNotPresentException If a class in either hierarchy is unknown
+     */
+    public String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+
+        String key = type1.compareTo(type2) < 0 ? type1 + ';' + type2 : type2 + ';' + type1;
+        String common = commonSuperClasses.get(key);
+
+        if (common == null) {
+            common = computeCommonSuperClass(type1, type2);
+            commonSuperClasses.putIfAbsent(key, common);
+        }
+
+        return common;
+    }
+
+    private String computeCommonSuperClass(String type1, String type2) {
+        Entry entry1 = getOrThrow(type1);
+        Entry entry2 = getOrThrow(type2);
+
+        if ((entry1.access & Opcodes.ACC_INTERFACE) != 0 || (entry2.access & Opcodes.ACC_INTERFACE) != 0) {
+            return "java/lang/Object";
+        }
+
+        Set<String> ancestors = new HashSet<>();
+
+        for (Entry entry = entry1; ; entry = getOrThrow(entry.superName)) {
+            ancestors.add(entry.name);
+
+            if (entry.superName == null) {
+                break;
+            }
+        }
+
+        for (Entry entry = entry2; ; entry = getOrThrow(entry.superName)) {
+            if (ancestors.contains(entry.name)) {
+                return entry.name;
+            }
+
+            if (entry.superName == null) {
+                return "java/lang/Object";
+            }
+        }
+    }
+
+    private Entry getOrThrow(String name) {
+        Entry entry = get(name);
+
+        if (entry == null) {
+            throw new TypeNotPresentException(name.replace('/', '.'), null);
+        }
+
+        return entry;
+    }
+
+    /**
+     * @param name     The internal name of a class
+     * @param ancestor The internal name of a possible super class or interface
+     * @return Whether the class is the ancestor or inherits from it, or null if unknown classes are in the way
+     */
+    public Boolean isAssignableTo(String name, String ancestor) {
+        if (name.equals(ancestor)) {
+            return true;
+        }
+
+        Entry entry = get(name);
+
+        if (entry == null) {
+            return null;
+        }
+
+        boolean unknown = false;
+
+        for (String parent : entry.getParents()) {
+            Boolean assignable = isAssignableTo(parent, ancestor);
+
+            if (assignable == null) {
+                unknown = true;
+            } else if (assignable) {
+                return true;
+            }
+        }
+
+        return unknown ? null : false;
+    }
+
+    /**
+     * Resolves a field like the JVM: the class, then its super interfaces, then its super class
+     *
+     * @return The resolved field, or null if it does not exist or unknown classes are in the way
+     */
+    Member resolveField(String owner, String name, String descriptor) {
+        Entry entry = get(owner);
+
+        if (entry == null) {
+            return null;
+        }
+
+        Integer access = entry.fields.get(name + descriptor);
+
+        if (access != null) {
+            return new Member(owner, access);
+        }
+
+        for (String itf : entry.interfaces) {
+            Member member = resolveField(itf, name, descriptor);
+
+            if (member != null) {
+                return member;
+            }
+        }
+
+        return entry.superName == null ? null : resolveField(entry.superName, name, descriptor);
+    }
+
+    /**
+     * Resolves a method like the JVM: the class and its super classes, then its super interfaces
+     *
+     * @return The resolved method, or null if it does not exist or unknown classes are in the way
+     */
+    Member resolveMethod(String owner, String name, String descriptor) {
+        for (String current = owner; current != null; ) {
+            Entry entry = get(current);
+
+            if (entry == null) {
+                break;
+            }
+
+            Integer access = entry.findMethod(name, descriptor);
+
+            if (access != null) {
+                return new Member(current, access);
+            }
+
+            current = entry.superName;
+        }
+
+        return resolveInterfaceMethod(owner, name, descriptor, new HashSet<>());
+    }
+
+    private Member resolveInterfaceMethod(String owner, String name, String descriptor, Set<String> visited) {
+        Entry entry = get(owner);
+
+        if (entry == null || !visited.add(owner)) {
+            return null;
+        }
+
+        Member found = null;
+
+        for (String parent : entry.getParents()) {
+            Entry itf = get(parent);
+
+            if (itf != null && (itf.access & Opcodes.ACC_INTERFACE) != 0) {
+                Integer access = itf.findMethod(name, descriptor);
+
+                // Prefer a default method over an abstract one
+                if (access != null && (found == null || (access & Opcodes.ACC_ABSTRACT) == 0)) {
+                    found = new Member(parent, access);
+                }
+            }
+
+            Member inherited = resolveInterfaceMethod(parent, name, descriptor, visited);
+
+            if (inherited != null && (found == null || (inherited.access & Opcodes.ACC_ABSTRACT) == 0)) {
+                found = inherited;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * @param name The internal name
+     * @return Whether the class and every one of its ancestors is known
+     */
+    boolean isComplete(String name) {
+        Entry entry = get(name);
+
+        if (entry == null) {
+            return false;
+        }
+
+        for (String parent : entry.getParents()) {
+            if (!isComplete(parent)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String resolveFieldOwner(String owner, String name, String descriptor) {
+        Member member = resolveField(owner, name, descriptor);
+        return member == null ? owner : member.owner;
+    }
+
+    @Override
+    public String resolveMethodOwner(String owner, String name, String descriptor) {
+        Member member = resolveMethod(owner, name, descriptor);
+        return member == null ? owner : member.owner;
+    }
+
+    /**
+     * A resolved field or method
+     */
+    static final class Member {
+
+        final String owner;
+        final int access;
+
+        Member(String owner, int access) {
+            this.owner = owner;
+            this.access = access;
+        }
+    }
+
+    /**
+     * The hierarchy and members of a class
+     */
+    static final class Entry {
+
+        final String name;
+        final int access;
+        final String superName;
+        final String[] interfaces;
+        final String mixinTarget;
+        final Map<String, Integer> fields = new HashMap<>();
+        final Map<String, Integer> methods = new HashMap<>();
+
+        Entry(String name, int access, String superName, String[] interfaces, String mixinTarget) {
+            this.name = name;
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.mixinTarget = mixinTarget;
+        }
+
+        List<String> getParents() {
+            List<String> parents = new ArrayList<>(interfaces.length + 1);
+
+            if (superName != null) {
+                parents.add(superName);
+            }
+
+            parents.addAll(Arrays.asList(interfaces));
+            return parents;
+        }
+
+        Integer findMethod(String name, String descriptor) {
+            Integer access = methods.get(name + descriptor);
+
+            // Signature polymorphic methods accept any descriptor
+            if (access == null && (this.name.equals("java/lang/invoke/MethodHandle") || this.name.equals("java/lang/invoke/VarHandle"))) {
+                for (Map.Entry<String, Integer> method : methods.entrySet()) {
+                    int polymorphic = Opcodes.ACC_NATIVE | Opcodes.ACC_VARARGS;
+
+                    if ((method.getValue() & polymorphic) == polymorphic && method.getKey().startsWith(name + "(")) {
+                        return method.getValue();
+                    }
+                }
+            }
+
+            return access;
+        }
+
+        Entry merge(Entry mixin) {
+            Set<String> interfaces = new LinkedHashSet<>(Arrays.asList(this.interfaces));
+            interfaces.addAll(Arrays.asList(mixin.interfaces));
+
+            Entry merged = new Entry(name, access, superName, interfaces.toArray(new String[0]), null);
+            merged.fields.putAll(fields);
+            merged.fields.putAll(mixin.fields);
+            merged.methods.putAll(methods);
+            mixin.methods.forEach((method, access) -> {
+                if (!method.startsWith("<")) {
+                    merged.methods.put(method, access);
+                }
+            });
+
+            return merged;
+        }
+    }
+
+    private static class Reader extends ClassVisitor {
+
+        private String name;
+        private int access;
+        private String superName;
+        private String[] interfaces;
+        private String mixinTarget;
+        private final Map<String, Integer> fields = new HashMap<>();
+        private final Map<String, Integer> methods = new HashMap<>();
+        Entry entry;
+
+        Reader() {
+            super(Opcodes.ASM8);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces == null ? new String[0] : interfaces;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            if (!descriptor.equals(MIXIN)) {
+                return null;
+            }
+
+            return new AnnotationVisitor(Opcodes.ASM8) {
+                @Override
+                public AnnotationVisitor visitArray(String name) {
+                    if (!name.equals("value")) {
+                        return null;
+                    }
+
+                    return new AnnotationVisitor(Opcodes.ASM8) {
+                        @Override
+                        public void visit(String name, Object value) {
+                            // Gloom's mixins only ever have one target
+                            if (value instanceof Type && mixinTarget == null) {
+                                mixinTarget = ((Type) value).getInternalName();
+                            }
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            fields.put(name + descriptor, access);
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            methods.put(name + descriptor, access);
+            return null;
+        }
+
+        @Override
+        public void visitEnd() {
+            entry = new Entry(name, access, superName, interfaces, mixinTarget);
+            entry.fields.putAll(fields);
+            entry.methods.putAll(methods);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import io.github.fukkitmc.gloom.definitions.SyntheticMethod;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates the counting code of profiling mode, where accessors and trampolines bump a
+ * {@link io.github.fukkitmc.gloom.runtime.AccessCounters counter} on entry
+ *
+ * <p>Each counted member gets a static final counter field on the class being generated, looked up once by its
+ * static initializer
+ */
+public final class Counters {
+
+    public static final String DESCRIPTOR = "Ljava/util/concurrent/atomic/LongAdder;";
+    /**
+     * The stack needed by {@link #initialize}
+     */
+    public static final int INITIALIZE_STACK = 1;
+
+    private static final String RUNTIME = "io/github/fukkitmc/gloom/runtime/AccessCounters";
+
+    private final String holder;
+    private final Map<String, String> fields = new LinkedHashMap<>();
+
+    /**
+     * @param holder The class declaring the counter fields, as referenced from the generated code
+     */
+    public Counters(String holder) {
+        this.holder = holder;
+    }
+
+    /**
+     * @param owner     The class the field is defined on
+     * @param field     Field
+     * @param operation The kind of access, such as {@code get}, {@code set} or an atomic operation's method
+     * @return The counter key of an access of a synthetic field
+     */
+    public static String getKey(String owner, SyntheticField field, String operation) {
+        return ReferenceIndex.memberKey(owner, field.getName(), field.getType().getDescriptor()) + "/" + operation;
+    }
+
+    /**
+     * @param owner  The class the method is defined on
+     * @param method Method
+     * @return The counter key of a synthetic method's trampoline
+     */
+    public static String getKey(String owner, SyntheticMethod method) {
+        return ReferenceIndex.memberKey(owner, method.getName(), method.getDescriptor());
+    }
+
+    /**
+     * @param key The counter key
+     * @return The name of the counter field for the key
+     */
+    public String register(String key) {
+        return fields.computeIfAbsent(key, k -> "gloom$counter" + fields.size());
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Wraps a method so that it bumps a counter before its code
+     *
+     * @param method The method
+     * @param key    The counter key
+     * @return The wrapped method
+     */
+    public MethodVisitor count(MethodVisitor method, String key) {
+        String field = register(key);
+
+        return new MethodVisitor(Opcodes.ASM8, method) {
+            @Override
+            public void visitCode() {
+                super.visitCode();
+                super.visitFieldInsn(Opcodes.GETSTATIC, holder, field, DESCRIPTOR);
+                super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/concurrent/atomic/LongAdder", "increment", "()V", false);
+            }
+
+            @Override
+            public void visitMaxs(int maxStack, int maxLocals) {
+                super.visitMaxs(Math.max(maxStack, 1), maxLocals);
+            }
+        };
+    }
+
+    /**
+     * @param visitor The class declaring the counter fields
+     */
+    public void emitFields(ClassVisitor visitor) {
+        for (String field : fields.values()) {
+            visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, field, DESCRIPTOR, null, null).visitEnd();
+        }
+    }
+
+    /**
+     * Looks up every registered counter and stores it, for use in a static initializer
+     *
+     * @param method The static initializer
+     */
+    public void initialize(MethodVisitor method) {
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            method.visitLdcInsn(entry.getKey());
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "counter", "(Ljava/lang/String;)" + DESCRIPTOR, false);
+            method.visitFieldInsn(Opcodes.PUTSTATIC, holder, entry.getValue(), DESCRIPTOR);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import io.github.fukkitmc.gloom.definitions.*;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * Whole-program elimination of synthetic members which nothing uses, based on a {@link ReferenceIndex} recorded by
+ * illuminating every class of the program
+ *
+ * <ul>
+ *     <li>Synthetic methods which are never called are dropped, along with their trampolines</li>
+ *     <li>Synthetic fields which are never read or written are dropped, along with their accessors</li>
+ *     <li>Accessors which are never called are dropped, such as the getter of a field which is only written</li>
+ *     <li>Static synthetic fields which are written but never read are dropped, and their stores are
+ *     {@link #getDiscarded() discarded}. Instance fields keep their storage, as discarding a store would also
+ *     discard its null check</li>
+ * </ul>
+ *
+ * <p>The writing classes of discarded fields have to be illuminated again {@link Illuminate#withDiscarded with the
+ * discarded members}. The index only sees the program's bytecode, so members used through reflection or by classes
+ * outside the program are dropped all the same, and must be kept out of the definitions or referenced in the program
+ *
+ * <p>Members accessed through a subtype are recorded under the subtype when the index's inheritance provider did not
+ * resolve them, and are counted as used through every subtype the {@link ClassIndex} knows of. Where the hierarchy
+ * cannot tell whether another owner of a member with the same name and descriptor is a subtype, or there is no
+ * hierarchy, the member is kept
+ *
+ * <p>Calls through an injected interface or a super type are recorded under that type, so instance accessors and
+ * methods which may implement or override one of their methods are always kept. Without a {@link ClassIndex} every
+ * instance accessor and method which is not private is assumed to override something
+ */
+public final class DeadSyntheticElimination {
+
+    private final GloomDefinitions definitions;
+    private final Set<String> discarded;
+    private final int removedFields;
+    private final int removedAccessors;
+    private final int removedMethods;
+
+    private DeadSyntheticElimination(GloomDefinitions definitions, Set<String> discarded, int removedFields, int removedAccessors, int removedMethods) {
+        this.definitions = definitions;
+        this.discarded = discarded;
+        this.removedFields = removedFields;
+        this.removedAccessors = removedAccessors;
+        this.removedMethods = removedMethods;
+    }
+
+    /**
+     * Runs the elimination without a hierarchy, keeping every instance member which might override another, and every
+     * member which might be recorded under a subtype
+     *
+     * @param definitions The definitions the index was recorded with
+     * @param index       The index of every class of the program
+     * @return The result of the elimination
+     */
+    public static DeadSyntheticElimination run(GloomDefinitions definitions, ReferenceIndex index) {
+        return run(definitions, index, null);
+    }
+
+    /**
+     * @param definitions The definitions the index was recorded with
+     * @param index       The index of every class of the program
+     * @param hierarchy   The hierarchy of the program, to find which members override nothing and which owners are
+     *                    subtypes, or null to keep every member which might override or be inherited
+     * @return The result of the elimination
+     */
+    public static DeadSyntheticElimination run(GloomDefinitions definitions, ReferenceIndex index, ClassIndex hierarchy) {
+        Set<ClassDefinition> kept = new HashSet<>();
+        Set<String> discarded = new HashSet<>();
+        Map<String, Set<String>> recorded = new HashMap<>();
+        int removedFields = 0;
+        int removedAccessors = 0;
+        int removedMethods = 0;
+
+        for (String key : index.getMembers()) {
+            int dot = key.indexOf('.');
+            recorded.computeIfAbsent(key.substring(dot + 1), k -> new HashSet<>()).add(key.substring(0, dot));
+        }
+
+        for (ClassDefinition definition : definitions.getDefinitions()) {
+            String owner = definition.getName();
+            Set<SyntheticField> fields = new HashSet<>();
+            Set<SyntheticMethod> methods = new HashSet<>();
+
+            for (SyntheticField field : definition.getSyntheticFields()) {
+                String descriptor = field.getType().getDescriptor();
+                Accessor getter = field.getGetter();
+                Accessor setter = field.getSetter();
+                String setterDescriptor = setter == null ? null : Type.getMethodDescriptor(Type.VOID_TYPE, setter.getType());
+                Set<String> owners = owners(owner, recorded, hierarchy, field.getName(), descriptor);
+                Set<String> setterOwners = setter == null ? Collections.emptySet() : owners(owner, recorded, hierarchy, setter.getName(), setterDescriptor);
+                boolean getterUsed = getter != null && isUsed(definition, index, hierarchy, recorded, getter.getAccess(), getter.getName(), Type.getMethodDescriptor(getter.getType()));
+                boolean setterUsed = setter != null && (setterOwners == null || isRead(index, setterOwners, setter.getName(), setterDescriptor) || mayOverride(definition, hierarchy, setter.getAccess(), setter.getName(), setterDescriptor));
+                boolean writtenDirectly = owners == null || isWritten(index, owners, field.getName(), descriptor);
+                Set<AtomicAccessor> atomics = new HashSet<>();
+
+                for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                    if (isUsed(definition, index, hierarchy, recorded, accessor.getAccess(), accessor.getName(), accessor.getDescriptor(field.getType()))) {
+                        atomics.add(accessor);
+                    }
+                }
+
+                // Without knowing every owner the field is accessed through, its stores cannot be discarded
+                boolean read = getterUsed || !atomics.isEmpty() || owners == null || setterOwners == null || isRead(index, owners, field.getName(), descriptor);
+                boolean written = setterUsed || !atomics.isEmpty() || writtenDirectly;
+                int accessors = (getter == null ? 0 : 1) + (setter == null ? 0 : 1) + field.getAtomicAccessors().size();
+
+                if (!read && (!written || (field.getAccess() & Opcodes.ACC_STATIC) != 0)) {
+                    if (writtenDirectly) {
+                        for (String o : owners) {
+                            discarded.add(ReferenceIndex.memberKey(o, field.getName(), descriptor));
+                        }
+                    }
+
+                    if (setterUsed) {
+                        for (String o : setterOwners) {
+                            discarded.add(ReferenceIndex.memberKey(o, setter.getName(), setterDescriptor));
+                        }
+                    }
+
+                    removedFields++;
+                    removedAccessors += accessors;
+                    continue;
+                }
+
+                SyntheticField used = new SyntheticField(field.getAccess(), field.getName(), field.getType(), field.getSignature(), getterUsed ? getter : null, setterUsed ? setter : null, atomics, field.getValue());
+                removedAccessors += accessors - ((getterUsed ? 1 : 0) + (setterUsed ? 1 : 0) + atomics.size());
+                fields.add(used.equals(field) ? field : used);
+            }
+
+            for (SyntheticMethod method : definition.getSyntheticMethods()) {
+                if (!isUsed(definition, index, hierarchy, recorded, method.getAccess(), method.getName(), method.getDescriptor())) {
+                    removedMethods++;
+                } else {
+                    methods.add(method);
+                }
+            }
+
+            if (!fields.isEmpty() || !methods.isEmpty() || !definition.getInjectInterfaces().isEmpty()) {
+                kept.add(new ClassDefinition(owner, definition.getInjectInterfaces(), fields, methods));
+            }
+        }
+
+        return new DeadSyntheticElimination(new GloomDefinitions(kept), Collections.unmodifiableSet(discarded), removedFields, removedAccessors, removedMethods);
+    }
+
+    private static boolean isUsed(ClassDefinition definition, ReferenceIndex index, ClassIndex hierarchy, Map<String, Set<String>> recorded, int access, String name, String descriptor) {
+        Set<String> owners = owners(definition.getName(), recorded, hierarchy, name, descriptor);
+        return owners == null || isRead(index, owners, name, descriptor) || mayOverride(definition, hierarchy, access, name, descriptor);
+    }
+
+    /**
+     * A member inherited by a subtype may be recorded under the subtype, where the inheritance provider the index
+     * was recorded with did not resolve it
+     *
+     * @param recorded The owners each {@code name:descriptor} is recorded under
+     * @return The member's owner and the subtypes it is recorded under, or null if another owner may be a subtype
+     */
+    private static Set<String> owners(String owner, Map<String, Set<String>> recorded, ClassIndex hierarchy, String name, String descriptor) {
+        Set<String> owners = new HashSet<>();
+        owners.add(owner);
+
+        for (String other : recorded.getOrDefault(name + ":" + descriptor, Collections.emptySet())) {
+            if (other.equals(owner)) {
+                continue;
+            }
+
+            Boolean assignable = hierarchy == null ? null : hierarchy.isAssignableTo(other, owner);
+
+            if (assignable == null) {
+                return null;
+            } else if (assignable) {
+                owners.add(other);
+            }
+        }
+
+        return owners;
+    }
+
+    private static boolean isRead(ReferenceIndex index, Set<String> owners, String name, String descriptor) {
+        for (String owner : owners) {
+            if (!index.getReadingClasses(owner, name, descriptor).isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isWritten(ReferenceIndex index, Set<String> owners, String name, String descriptor) {
+        for (String owner : owners) {
+            if (!index.getWritingClasses(owner, name, descriptor).isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Whether calls to the method may be recorded under an injected interface or a super type
+     */
+    private static boolean mayOverride(ClassDefinition definition, ClassIndex hierarchy, int access, String name, String descriptor) {
+        if ((access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0) {
+            return false;
+        }
+
+        if (hierarchy == null || !hierarchy.isComplete(definition.getName())) {
+            return true;
+        }
+
+        List<String> parents = new ArrayList<>(definition.getInjectInterfaces());
+        parents.addAll(hierarchy.get(definition.getName()).getParents());
+
+        for (String parent : parents) {
+            if (!hierarchy.isComplete(parent) || hierarchy.resolveMethod(parent, name, descriptor) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The definitions without the unused members
+     */
+    public GloomDefinitions getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * @return The {@link ReferenceIndex#memberKey member keys} of the dropped fields and setters which are still
+     * written to, for {@link Illuminate#withDiscarded}
+     */
+    public Set<String> getDiscarded() {
+        return discarded;
+    }
+
+    public int getRemovedFields() {
+        return removedFields;
+    }
+
+    public int getRemovedAccessors() {
+        return removedAccessors;
+    }
+
+    public int getRemovedMethods() {
+        return removedMethods;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadSyntheticElimination{" +
+                "removedFields=" + removedFields +
+                ", removedAccessors=" + removedAccessors +
+                ", removedMethods=" + removedMethods +
+                ", discarded=" + discarded.size() +
+                '}';
+    }
+}
@@ -17,13 +17,16 @@
 package io.github.fukkitmc.gloom.asm;
 
 import io.github.fukkitmc.gloom.definitions.*;
+import io.github.fukkitmc.gloom.jfr.Events;
+import io.github.fukkitmc.gloom.jfr.InjectEvent;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
-import java.util.Arrays;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Stream;
 
 /**
@@ -32,18 +35,84 @@ import java.util.stream.Stream;
 public class GloomInjector extends ClassVisitor {
 
     private final GloomDefinitions definitions;
+    private final boolean profile;
     private ClassDefinition definition;
+    private final Set<SyntheticField> atomics = new LinkedHashSet<>();
+    private final Set<SyntheticField> initialized = new LinkedHashSet<>();
+    private Counters counters;
+    private boolean initializerVisited;
+    private boolean fieldsInjected;
+    private InjectEvent event;
+    private boolean deferEvent;
 
     public GloomInjector(ClassVisitor delegate, GloomDefinitions definitions) {
+        this(delegate, definitions, false);
+    }
+
+    /**
+     * @param delegate    The class visitor to delegate to
+     * @param definitions The definitions to inject
+     * @param profile     Whether the injected accessors and trampolines bump {@link Counters access counters}
+     */
+    public GloomInjector(ClassVisitor delegate, GloomDefinitions definitions, boolean profile) {
         super(Opcodes.ASM8, delegate);
         this.definitions = definitions;
+        this.profile = profile;
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         definition = definitions.get(name);
+        atomics.clear();
+        initialized.clear();
+        counters = null;
+        initializerVisited = false;
+        fieldsInjected = false;
 
         if (definition != null) {
+            if (Events.AVAILABLE && InjectEvent.isTypeEnabled()) {
+                event = new InjectEvent();
+                event.begin();
+            }
+
+            for (SyntheticField field : definition.getSyntheticFields()) {
+                if (field.isAtomic()) {
+                    atomics.add(field);
+                }
+
+                if (field.isConstant() && (field.getSetter() != null || field.isAtomic())) {
+                    throw new IllegalStateException("Constant synthetic field " + name + "." + field.getName() + " cannot be written");
+                }
+
+                // Static fields are initialized by their ConstantValue attribute
+                if (field.getValue() != null && (field.getAccess() & Opcodes.ACC_STATIC) == 0) {
+                    initialized.add(field);
+                }
+            }
+
+            if (profile) {
+                counters = new Counters(name);
+
+                // Every counter has to be known before an existing initializer is visited
+                for (SyntheticField field : definition.getSyntheticFields()) {
+                    if (field.getGetter() != null) {
+                        counters.register(Counters.getKey(name, field, "get"));
+                    }
+
+                    if (field.getSetter() != null) {
+                        counters.register(Counters.getKey(name, field, "set"));
+                    }
+
+                    for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                        counters.register(Counters.getKey(name, field, accessor.getOperation().getMethod()));
+                    }
+                }
+
+                for (SyntheticMethod method : definition.getSyntheticMethods()) {
+                    counters.register(Counters.getKey(name, method));
+                }
+            }
+
             Set<String> inject = definition.getInjectInterfaces();
 
             if (!inject.isEmpty()) {
@@ -70,12 +139,151 @@ public class GloomInjector extends ClassVisitor {
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
+    /**
+     * Injects definitions into a class tree in place, producing the same class as visiting it would
+     *
+     * @param node        The class
+     * @param definitions The definitions to inject
+     * @param profile     Whether the injected accessors and trampolines bump {@link Counters access counters}
+     * @return Whether the class had a definition, and so was changed
+     */
+    public static boolean inject(ClassNode node, GloomDefinitions definitions, boolean profile) {
+        if (!definitions.contains(node.name)) {
+            return false;
+        }
+
+        GloomInjector injector = new GloomInjector(node, definitions, profile);
+        List<MethodNode> methods = new ArrayList<>(node.methods);
+        injector.visit(node.version, node.access, node.name, node.signature, node.superName, node.interfaces.toArray(new String[0]));
+
+        for (MethodNode method : methods) {
+            if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                continue;
+            }
+
+            // Collects what would be prepended at visitCode, and the adjusted maximums
+            MethodNode prefix = new MethodNode();
+            MethodVisitor visitor = injector.wrapMethod(method.name, prefix);
+
+            if (visitor != prefix) {
+                visitor.visitCode();
+                visitor.visitMaxs(method.maxStack, method.maxLocals);
+                method.instructions.insert(prefix.instructions);
+                method.maxStack = prefix.maxStack;
+            }
+        }
+
+        injector.visitEnd();
+        return true;
+    }
+
+    public static boolean inject(ClassNode node, GloomDefinitions definitions) {
+        return inject(node, definitions, false);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        if (definition != null) {
+            injectFields();
+        }
+
+        return wrapMethod(name, super.visitMethod(access, name, descriptor, signature, exceptions));
+    }
+
+    private MethodVisitor wrapMethod(String name, MethodVisitor visitor) {
+        if (!initialized.isEmpty() && name.equals("<init>")) {
+            // Storing to fields declared by the class itself is allowed before the super constructor is called
+            return new MethodVisitor(Opcodes.ASM8, visitor) {
+                @Override
+                public void visitCode() {
+                    super.visitCode();
+
+                    for (SyntheticField field : initialized) {
+                        super.visitVarInsn(Opcodes.ALOAD, 0);
+                        RewriteTable.push(mv, field.getValue());
+                        super.visitFieldInsn(Opcodes.PUTFIELD, definition.getName(), field.getName(), field.getType().getDescriptor());
+                    }
+                }
+
+                @Override
+                public void visitMaxs(int maxStack, int maxLocals) {
+                    super.visitMaxs(Math.max(maxStack, 3), maxLocals);
+                }
+            };
+        }
+
+        if (!needsInitializer() || !name.equals("<clinit>")) {
+            return visitor;
+        }
+
+        initializerVisited = true;
+
+        // Look up the handles and counters before the existing initializer runs
+        return new MethodVisitor(Opcodes.ASM8, visitor) {
+            @Override
+            public void visitCode() {
+                super.visitCode();
+                initialize(this);
+            }
+
+            @Override
+            public void visitMaxs(int maxStack, int maxLocals) {
+                super.visitMaxs(Math.max(maxStack, VarHandles.INITIALIZE_STACK), maxLocals);
+            }
+        };
+    }
+
+    private boolean needsInitializer() {
+        return !atomics.isEmpty() || (counters != null && !counters.isEmpty());
+    }
+
+    private void initialize(MethodVisitor visitor) {
+        for (SyntheticField field : atomics) {
+            VarHandles.initialize(visitor, definition.getName(), field, definition.getName());
+        }
+
+        if (counters != null) {
+            counters.initialize(visitor);
+        }
+    }
+
+    private MethodVisitor count(MethodVisitor visitor, String key) {
+        return counters == null ? visitor : counters.count(visitor, key);
+    }
+
+    /**
+     * Visits the injected fields after the class's own fields and before any method, which is where they end up in a
+     * tree, so that {@link #inject(ClassNode, GloomDefinitions, boolean) injecting into a tree} writes the same class
+     */
+    private void injectFields() {
+        if (fieldsInjected) {
+            return;
+        }
+
+        fieldsInjected = true;
+
+        for (SyntheticField field : definition.getSyntheticFields()) {
+            Object value = (field.getAccess() & Opcodes.ACC_STATIC) != 0 ? field.getValue() : null;
+            super.visitField(field.getFieldAccess(), field.getName(), field.getType().getDescriptor(), field.getSignature(), value).visitEnd();
+        }
+
+        for (SyntheticField field : atomics) {
+            super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, VarHandles.getHandleName(field), VarHandles.DESCRIPTOR, null, null).visitEnd();
+        }
+
+        if (counters != null) {
+            counters.emitFields(cv);
+        }
+    }
+
     @Override
     public void visitEnd() {
         if (definition != null) {
-            for (SyntheticField field : definition.getSyntheticFields()) {
-                super.visitField(field.getAccess(), field.getName(), field.getType().getDescriptor(), field.getSignature(), null).visitEnd();
+            String receiver = Type.getObjectType(definition.getName()).getDescriptor();
 
+            injectFields();
+
+            for (SyntheticField field : definition.getSyntheticFields()) {
                 Accessor getter = field.getGetter();
                 Accessor setter = field.getSetter();
 
@@ -84,7 +292,7 @@ public class GloomInjector extends ClassVisitor {
                     boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
 
                     // TODO: These can be null
-                    MethodVisitor visitor = super.visitMethod(access, getter.getName(), Type.getMethodDescriptor(getter.getType()), getter.getSignature(), null);
+                    MethodVisitor visitor = count(super.visitMethod(access, getter.getName(), Type.getMethodDescriptor(getter.getType()), getter.getSignature(), null), Counters.getKey(definition.getName(), field, "get"));
                     visitor.visitCode();
 
                     if (isStatic) {
@@ -95,7 +303,7 @@ public class GloomInjector extends ClassVisitor {
                     }
 
                     visitor.visitInsn(getter.getType().getOpcode(Opcodes.IRETURN));
-                    visitor.visitMaxs(1, isStatic ? 0 : 1);
+                    visitor.visitMaxs(getter.getType().getSize(), isStatic ? 0 : 1);
                     visitor.visitEnd();
                 }
 
@@ -103,7 +311,7 @@ public class GloomInjector extends ClassVisitor {
                     int access = setter.getAccess();
                     boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
 
-                    MethodVisitor visitor = super.visitMethod(access, setter.getName(), Type.getMethodDescriptor(Type.VOID_TYPE, setter.getType()), setter.getSignature(), null);
+                    MethodVisitor visitor = count(super.visitMethod(access, setter.getName(), Type.getMethodDescriptor(Type.VOID_TYPE, setter.getType()), setter.getSignature(), null), Counters.getKey(definition.getName(), field, "set"));
                     visitor.visitCode();
 
                     if (isStatic) {
@@ -116,21 +324,33 @@ public class GloomInjector extends ClassVisitor {
                     visitor.visitFieldInsn((field.getAccess() & Opcodes.ACC_STATIC) != 0 ? Opcodes.PUTSTATIC : Opcodes.PUTFIELD, definition.getName(), field.getName(), field.getType().getDescriptor());
                     visitor.visitInsn(Opcodes.RETURN);
 
-                    if (isStatic) {
-                        visitor.visitMaxs(1, 1);
-                    } else {
-                        visitor.visitMaxs(2, 2);
-                    }
+                    int size = setter.getType().getSize() + (isStatic ? 0 : 1);
+                    visitor.visitMaxs(size, size);
 
                     visitor.visitEnd();
                 }
+
+                for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                    boolean isStatic = (field.getAccess() & Opcodes.ACC_STATIC) != 0;
+                    MethodVisitor visitor = count(super.visitMethod(accessor.getAccess(), accessor.getName(), accessor.getDescriptor(field.getType()), null, null), Counters.getKey(definition.getName(), field, accessor.getOperation().getMethod()));
+                    VarHandles.accessor(visitor, definition.getName(), field, accessor.getOperation(), isStatic ? null : receiver);
+                }
+            }
+
+            if (needsInitializer() && !initializerVisited) {
+                MethodVisitor visitor = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+                visitor.visitCode();
+                initialize(visitor);
+                visitor.visitInsn(Opcodes.RETURN);
+                visitor.visitMaxs(VarHandles.INITIALIZE_STACK, 0);
+                visitor.visitEnd();
             }
 
             for (SyntheticMethod method : definition.getSyntheticMethods()) {
                 Type returnType = Type.getReturnType(method.getDescriptor());
                 RedirectTarget redirect = method.getRedirect();
 
-                MethodVisitor visitor = super.visitMethod(method.getAccess(), method.getName(), method.getDescriptor(), method.getSignature(), null);
+                MethodVisitor visitor = count(super.visitMethod(method.getAccess(), method.getName(), method.getDescriptor(), method.getSignature(), null), Counters.getKey(definition.getName(), method));
                 visitor.visitCode();
 
                 int counter = 0;
@@ -154,5 +374,51 @@ public class GloomInjector extends ClassVisitor {
         }
 
         super.visitEnd();
+
+        if (event != null) {
+            event.end();
+            event.className = definition.getName();
+            event.syntheticFields = definition.getSyntheticFields().size();
+            event.syntheticMethods = definition.getSyntheticMethods().size();
+
+            if (!deferEvent) {
+                commitEvent(0, 0);
+            }
+        }
+    }
+
+    /**
+     * Leaves the JFR event of each pass uncommitted at {@link #visitEnd()}, for {@link #commitEvent} to add the sizes
+     * of the class files
+     */
+    public void deferEvent() {
+        deferEvent = true;
+    }
+
+    /**
+     * Commits the event of the last pass, if {@link #deferEvent() deferred}
+     *
+     * @param inputSize  The size of the class file read, or 0 if it was not read from bytes
+     * @param outputSize The size of the class file written, or 0 if it was left unchanged
+     */
+    public void commitEvent(long inputSize, long outputSize) {
+        if (event == null) {
+            return;
+        }
+
+        if (event.shouldCommit()) {
+            event.inputSize = inputSize;
+            event.outputSize = outputSize;
+            event.commit();
+        }
+
+        event = null;
+    }
+
+    /**
+     * @return Whether the visited class had a definition, and so was changed
+     */
+    public boolean isInjected() {
+        return definition != null;
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A {@link ClassWriter} answering common super class queries from a {@link ClassIndex} rather than loading classes,
+ * so frames can be computed for classes outside the classpath
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+    private final ClassIndex index;
+
+    public HierarchyClassWriter(int flags, ClassIndex index) {
+        super(flags);
+        this.index = index;
+    }
+
+    public HierarchyClassWriter(ClassReader reader, int flags, ClassIndex index) {
+        super(reader, flags);
+        this.index = index;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return index.getCommonSuperClass(type1, type2);
+    }
+}
@@ -16,9 +16,21 @@
 
 package io.github.fukkitmc.gloom.asm;
 
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
+import io.github.fukkitmc.gloom.definitions.ClassDefinition;
 import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import io.github.fukkitmc.gloom.definitions.SyntheticMethod;
 import io.github.fukkitmc.gloom.emitter.EmitterProvider;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Analyses classes for references to Gloom injected data
@@ -41,14 +53,160 @@ public class Illuminate {
     final GloomDefinitions definitions;
     final EmitterProvider<?> provider;
     final InheritanceProvider inheritance;
+    final RewriteTable table;
+    final ReferenceIndex index;
+    final boolean devirtualize;
+    final Set<String> discarded;
+    // The names of the discarded members, checked before building a member key
+    final Set<String> discardedNames = new HashSet<>();
+    // The names of the synthetic members, whose references are recorded whatever their owner
+    final Set<String> memberNames;
 
-    public Illuminate(GloomDefinitions definitions, EmitterProvider<?> provider, InheritanceProvider inheritance) {
+    private Illuminate(GloomDefinitions definitions, EmitterProvider<?> provider, InheritanceProvider inheritance, RewriteTable table, ReferenceIndex index, boolean devirtualize, Set<String> discarded) {
         this.definitions = definitions;
         this.provider = provider;
         this.inheritance = inheritance == null ? DEFAULT : inheritance;
+        this.table = table;
+        this.index = index;
+        this.devirtualize = devirtualize;
+        this.discarded = discarded;
+
+        for (String key : discarded) {
+            int dot = key.indexOf('.');
+            discardedNames.add(key.substring(dot + 1, key.indexOf(':', dot)));
+        }
+
+        if (index == null) {
+            memberNames = Collections.emptySet();
+        } else if (table != null) {
+            memberNames = table.getNames();
+        } else {
+            memberNames = new HashSet<>();
+
+            for (ClassDefinition definition : definitions.getDefinitions()) {
+                addNames(memberNames, definition);
+            }
+        }
+    }
+
+    private static void addNames(Set<String> names, ClassDefinition definition) {
+        for (SyntheticField field : definition.getSyntheticFields()) {
+            names.add(field.getName());
+
+            if (field.getGetter() != null) {
+                names.add(field.getGetter().getName());
+            }
+
+            if (field.getSetter() != null) {
+                names.add(field.getSetter().getName());
+            }
+
+            for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                names.add(accessor.getName());
+            }
+        }
+
+        for (SyntheticMethod method : definition.getSyntheticMethods()) {
+            names.add(method.getName());
+        }
+    }
+
+    public Illuminate(GloomDefinitions definitions, EmitterProvider<?> provider, InheritanceProvider inheritance) {
+        this(definitions, provider, inheritance, null, null, false, Collections.emptySet());
+    }
+
+    /**
+     * Creates an {@link Illuminate} which only consults a precompiled table, and is safe to share between threads
+     *
+     * @param table       The compiled table
+     * @param inheritance The inheritance provider
+     */
+    public Illuminate(RewriteTable table, InheritanceProvider inheritance) {
+        this(null, null, inheritance, table, null, false, Collections.emptySet());
+    }
+
+    public static Illuminate compile(GloomDefinitions definitions, EmitterProvider<?> provider, InheritanceProvider inheritance) {
+        return new Illuminate(RewriteTable.compile(definitions, provider), inheritance);
+    }
+
+    /**
+     * @param index The index to record the references of every visited class to
+     * @return A copy of this {@link Illuminate} which records to the index
+     */
+    public Illuminate withIndex(ReferenceIndex index) {
+        return new Illuminate(definitions, provider, inheritance, table, index, devirtualize, discarded);
+    }
+
+    /**
+     * Where the {@link io.github.fukkitmc.gloom.emitter.Emitter#mergesInterface() emitter merges} the interface
+     * into the target, accesses through a class are rewritten to {@code INVOKEVIRTUAL} on the instruction's owner
+     * rather than {@code INVOKEINTERFACE} on the interface. The owner is resolved to the target, so its hierarchy
+     * contains the merged accessor
+     *
+     * @return A copy of this {@link Illuminate} which devirtualizes accessors
+     */
+    public Illuminate withDevirtualization() {
+        return new Illuminate(definitions, provider, inheritance, table, index, true, discarded);
+    }
+
+    /**
+     * Stores to discarded static fields, and calls to discarded void methods, are replaced by popping their operands
+     *
+     * @param discarded The {@link ReferenceIndex#memberKey member keys} of the discarded members
+     * @return A copy of this {@link Illuminate} which discards the members
+     * @see DeadSyntheticElimination
+     */
+    public Illuminate withDiscarded(Set<String> discarded) {
+        return new Illuminate(definitions, provider, inheritance, table, index, devirtualize, discarded);
+    }
+
+    boolean isDefined(String owner) {
+        return table == null ? definitions.contains(owner) : table.getOwners().contains(owner);
     }
 
     public ClassVisitor createVisitor(ClassVisitor visitor) {
         return new IlluminateClassVisitor(visitor, this);
     }
+
+    /**
+     * Rewrites the field and method instructions of a class tree in place, producing the same class as visiting it
+     * would
+     *
+     * @param node The class
+     * @return The number of instructions rewritten
+     */
+    public int illuminate(ClassNode node) {
+        IlluminateClassVisitor classVisitor = new IlluminateClassVisitor(null, this);
+        classVisitor.visit(node.version, node.access, node.name, node.signature, node.superName, null);
+
+        // Receives what the visitor path would pass on for each instruction
+        MethodNode replacement = new MethodNode();
+        IlluminateSyntheticVisitor visitor = new IlluminateSyntheticVisitor(classVisitor, this).reset(replacement);
+
+        for (MethodNode method : node.methods) {
+            InsnList instructions = method.instructions;
+
+            for (AbstractInsnNode instruction = instructions.getFirst(); instruction != null; ) {
+                AbstractInsnNode next = instruction.getNext();
+                int type = instruction.getType();
+
+                if (type == AbstractInsnNode.FIELD_INSN || type == AbstractInsnNode.METHOD_INSN) {
+                    int rewrites = classVisitor.rewrites;
+                    instruction.accept(visitor);
+
+                    if (classVisitor.rewrites != rewrites) {
+                        instructions.insertBefore(instruction, replacement.instructions);
+                        instructions.remove(instruction);
+                    } else {
+                        replacement.instructions.clear();
+                    }
+                }
+
+                instruction = next;
+            }
+        }
+
+        classVisitor.visitEnd();
+        return classVisitor.rewrites;
+    }
 }
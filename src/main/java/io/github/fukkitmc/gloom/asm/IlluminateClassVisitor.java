@@ -16,21 +16,131 @@
 
 package io.github.fukkitmc.gloom.asm;
 
+import io.github.fukkitmc.gloom.jfr.Events;
+import io.github.fukkitmc.gloom.jfr.IlluminateEvent;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class IlluminateClassVisitor extends ClassVisitor {
 
     private final Illuminate illuminate;
+    int rewrites;
+    private String name;
+    private Set<String> owners;
+    private Set<String> members;
+    private Set<String> writes;
+    private IlluminateEvent event;
+    private boolean deferEvent;
+    private IlluminateSyntheticVisitor free;
 
     IlluminateClassVisitor(ClassVisitor visitor, Illuminate illuminate) {
         super(Opcodes.ASM8, visitor);
         this.illuminate = illuminate;
     }
 
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.name = name;
+
+        if (Events.AVAILABLE && IlluminateEvent.isTypeEnabled()) {
+            event = new IlluminateEvent();
+            event.begin();
+        }
+
+        if (illuminate.index != null) {
+            owners = new HashSet<>();
+            members = new HashSet<>();
+            writes = new HashSet<>();
+        }
+
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
     @Override
     public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
-        return new IlluminateSyntheticVisitor(super.visitMethod(access, name, descriptor, signature, exceptions), illuminate);
+        MethodVisitor delegate = super.visitMethod(access, name, descriptor, signature, exceptions);
+        IlluminateSyntheticVisitor visitor = free;
+
+        // Methods are usually visited one after another, but a new visitor is needed if they are interleaved
+        if (visitor == null) {
+            visitor = new IlluminateSyntheticVisitor(this, illuminate);
+        } else {
+            free = null;
+        }
+
+        return visitor.reset(delegate);
+    }
+
+    void release(IlluminateSyntheticVisitor visitor) {
+        free = visitor;
+    }
+
+    @Override
+    public void visitEnd() {
+        if (illuminate.index != null) {
+            illuminate.index.record(name, owners, members, writes);
+        }
+
+        super.visitEnd();
+
+        if (event != null) {
+            event.end();
+            event.className = name;
+            event.rewrites = rewrites;
+
+            if (!deferEvent) {
+                commitEvent(0, 0);
+            }
+        }
+    }
+
+    /**
+     * Leaves the JFR event of each pass uncommitted at {@link #visitEnd()}, for {@link #commitEvent} to add the sizes
+     * of the class files
+     */
+    public void deferEvent() {
+        deferEvent = true;
+    }
+
+    /**
+     * Commits the event of the last pass, if {@link #deferEvent() deferred}
+     *
+     * @param inputSize  The size of the class file read, or 0 if it was not read from bytes
+     * @param outputSize The size of the class file written, or 0 if it was left unchanged
+     */
+    public void commitEvent(long inputSize, long outputSize) {
+        if (event == null) {
+            return;
+        }
+
+        if (event.shouldCommit()) {
+            event.inputSize = inputSize;
+            event.outputSize = outputSize;
+            event.commit();
+        }
+
+        event = null;
+    }
+
+    void reference(String owner, String name, String descriptor, boolean write) {
+        if (owners != null) {
+            owners.add(owner);
+
+            // Members inherited through an owner the inheritance provider did not resolve are recorded by name
+            if (illuminate.isDefined(owner) || illuminate.memberNames.contains(name)) {
+                (write ? writes : members).add(ReferenceIndex.memberKey(owner, name, descriptor));
+            }
+        }
+    }
+
+    /**
+     * @return The number of instructions rewritten so far
+     */
+    public int getRewrites() {
+        return rewrites;
     }
 }
@@ -16,6 +16,7 @@
 
 package io.github.fukkitmc.gloom.asm;
 
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
 import io.github.fukkitmc.gloom.definitions.ClassDefinition;
 import io.github.fukkitmc.gloom.definitions.RedirectTarget;
 import io.github.fukkitmc.gloom.definitions.SyntheticField;
@@ -23,20 +24,59 @@ import io.github.fukkitmc.gloom.definitions.SyntheticMethod;
 import io.github.fukkitmc.gloom.emitter.Emitter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 
+/**
+ * Rewrites the instructions of a method. Instances are reused by their {@link IlluminateClassVisitor} once a method
+ * has been visited, and nothing is allocated for instructions which are left as is
+ */
 class IlluminateSyntheticVisitor extends MethodVisitor {
 
+    private final IlluminateClassVisitor classVisitor;
     private final Illuminate illuminate;
+    private final RewriteTable.Key probe = new RewriteTable.Key();
 
-    IlluminateSyntheticVisitor(MethodVisitor visitor, Illuminate illuminate) {
-        super(Opcodes.ASM8, visitor);
+    IlluminateSyntheticVisitor(IlluminateClassVisitor classVisitor, Illuminate illuminate) {
+        super(Opcodes.ASM8);
+        this.classVisitor = classVisitor;
         this.illuminate = illuminate;
     }
 
+    IlluminateSyntheticVisitor reset(MethodVisitor visitor) {
+        this.mv = visitor;
+        return this;
+    }
+
+    @Override
+    public void visitEnd() {
+        super.visitEnd();
+        mv = null;
+        classVisitor.release(this);
+    }
+
     @Override
     public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
-        ClassDefinition definition = illuminate.definitions.get(illuminate.inheritance.resolveFieldOwner(owner, name, descriptor));
+        String resolved = illuminate.inheritance.resolveFieldOwner(owner, name, descriptor);
+        classVisitor.reference(resolved, name, descriptor, opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC);
+
+        if (opcode == Opcodes.PUTSTATIC && isDiscarded(resolved, name, descriptor)) {
+            classVisitor.rewrites++;
+            super.visitInsn(isWide(descriptor.charAt(0)) ? Opcodes.POP2 : Opcodes.POP);
+            return;
+        }
+
+        if (illuminate.table != null) {
+            RewriteTable.Rewrite rewrite = illuminate.table.get(probe, opcode, resolved, name, descriptor);
+
+            if (rewrite == null) {
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+            } else {
+                apply(rewrite, opcode, owner);
+            }
+
+            return;
+        }
+
+        ClassDefinition definition = illuminate.definitions.get(resolved);
 
         if (definition == null) {
             super.visitFieldInsn(opcode, owner, name, descriptor);
@@ -45,37 +85,71 @@ class IlluminateSyntheticVisitor extends MethodVisitor {
 
         SyntheticField field = definition.findSyntheticField(name, descriptor);
 
-        if (field == null) {
+        if (field == null || (field.isConstant() && opcode != Opcodes.GETSTATIC)) {
             super.visitFieldInsn(opcode, owner, name, descriptor);
             return;
         }
 
+        classVisitor.rewrites++;
+
+        if (field.isConstant()) {
+            RewriteTable.push(this, field.getValue());
+            return;
+        }
+
         Emitter emitter = illuminate.provider.forClass(definition.getName());
         boolean isStatic = opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC;
         boolean isPut = opcode == Opcodes.PUTSTATIC || opcode == Opcodes.PUTFIELD;
 
         if (isStatic) {
-            String holder = emitter.getHolder();
+            String holder = emitter.getHolder(field);
+            String holderField = emitter.generateHolderSyntheticField(field);
 
-            if (isPut) {
-                super.visitMethodInsn(Opcodes.INVOKESTATIC, holder, emitter.generateHolderSyntheticSetAccessor(field), Type.getMethodDescriptor(Type.VOID_TYPE, field.getType()), false);
+            if (holderField != null) {
+                super.visitFieldInsn(opcode, holder, holderField, descriptor);
+            } else if (isPut) {
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, holder, emitter.generateHolderSyntheticSetAccessor(field), field.getSetterDescriptor(), false);
             } else {
-                super.visitMethodInsn(Opcodes.INVOKESTATIC, holder, emitter.generateHolderSyntheticGetAccessor(field), Type.getMethodDescriptor(field.getType()), false);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, holder, emitter.generateHolderSyntheticGetAccessor(field), field.getGetterDescriptor(), false);
             }
         } else {
-            String itf = emitter.getInterface();
-
             if (isPut) {
-                super.visitMethodInsn(Opcodes.INVOKEINTERFACE, itf, emitter.generateInterfaceSyntheticSetAccessor(field), Type.getMethodDescriptor(Type.VOID_TYPE, field.getType()), true);
+                invokeInterfaceAccessor(emitter, field, definition.getName(), opcode, owner, emitter.generateInterfaceSyntheticSetAccessor(field), field.getSetterDescriptor());
             } else {
-                super.visitMethodInsn(Opcodes.INVOKEINTERFACE, itf, emitter.generateInterfaceSyntheticGetAccessor(field), Type.getMethodDescriptor(field.getType()), true);
+                invokeInterfaceAccessor(emitter, field, definition.getName(), opcode, owner, emitter.generateInterfaceSyntheticGetAccessor(field), field.getGetterDescriptor());
             }
         }
     }
 
     @Override
     public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-        ClassDefinition definition = illuminate.definitions.get(illuminate.inheritance.resolveMethodOwner(owner, name, descriptor));
+        String resolved = illuminate.inheritance.resolveMethodOwner(owner, name, descriptor);
+        classVisitor.reference(resolved, name, descriptor, false);
+
+        if (isDiscarded(resolved, name, descriptor)) {
+            classVisitor.rewrites++;
+            popArguments(descriptor, 1);
+
+            if (opcode != Opcodes.INVOKESTATIC) {
+                super.visitInsn(Opcodes.POP);
+            }
+
+            return;
+        }
+
+        if (illuminate.table != null) {
+            RewriteTable.Rewrite rewrite = illuminate.table.get(probe, opcode, resolved, name, descriptor);
+
+            if (rewrite == null) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            } else {
+                apply(rewrite, opcode, owner);
+            }
+
+            return;
+        }
+
+        ClassDefinition definition = illuminate.definitions.get(resolved);
 
         if (definition == null) {
             super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
@@ -87,39 +161,69 @@ class IlluminateSyntheticVisitor extends MethodVisitor {
 
             if (method != null) {
                 RedirectTarget target = method.getRedirect();
+                classVisitor.rewrites++;
                 super.visitMethodInsn(method.getOpcode(), target.getOwner(), target.getName(), target.getDescriptor(), target.isInterface());
                 return;
             }
         }
 
-        Type ret = Type.getReturnType(descriptor);
-        Type[] parameters = Type.getArgumentTypes(descriptor);
-        boolean isStatic = opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC;
+        {
+            SyntheticField field = definition.findSyntheticAtomicField(name, descriptor);
+
+            if (field != null) {
+                AtomicAccessor.Operation operation = field.findAtomicAccessor(name, descriptor).getOperation();
+                classVisitor.rewrites++;
+                Emitter emitter = illuminate.provider.forClass(definition.getName());
+
+                if ((field.getAccess() & Opcodes.ACC_STATIC) != 0) {
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticAtomicAccessor(field, operation), descriptor, false);
+                } else {
+                    invokeInterfaceAccessor(emitter, field, definition.getName(), opcode, owner, emitter.generateInterfaceSyntheticAtomicAccessor(field, operation), descriptor);
+                }
+
+                return;
+            }
+        }
+
+        boolean isStatic = opcode == Opcodes.INVOKESTATIC;
 
-        if (parameters.length == 1 && ret.getSort() == Type.VOID) {
+        if (isSetterShape(descriptor)) {
             SyntheticField field = definition.findSyntheticSetter(name, descriptor);
 
             if (field != null) {
+                classVisitor.rewrites++;
                 Emitter emitter = illuminate.provider.forClass(definition.getName());
 
                 if (isStatic) {
-                    super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(), emitter.generateHolderSyntheticSetAccessor(field), descriptor, false);
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticSetAccessor(field), descriptor, false);
                 } else {
-                    super.visitMethodInsn(Opcodes.INVOKEINTERFACE, emitter.getInterface(), emitter.generateInterfaceSyntheticSetAccessor(field), descriptor, true);
+                    invokeInterfaceAccessor(emitter, field, definition.getName(), opcode, owner, emitter.generateInterfaceSyntheticSetAccessor(field), descriptor);
                 }
 
                 return;
             }
-        } else if (parameters.length == 0 && ret.getSort() != Type.VOID) {
+        } else if (isGetterShape(descriptor)) {
             SyntheticField field = definition.findSyntheticGetter(name, descriptor);
 
+            if (field != null && field.isConstant()) {
+                classVisitor.rewrites++;
+
+                if (!isStatic) {
+                    super.visitInsn(Opcodes.POP);
+                }
+
+                RewriteTable.push(this, field.getValue());
+                return;
+            }
+
             if (field != null) {
+                classVisitor.rewrites++;
                 Emitter emitter = illuminate.provider.forClass(definition.getName());
 
                 if (isStatic) {
-                    super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(), emitter.generateHolderSyntheticGetAccessor(field), descriptor, false);
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticGetAccessor(field), descriptor, false);
                 } else {
-                    super.visitMethodInsn(Opcodes.INVOKEINTERFACE, emitter.getInterface(), emitter.generateInterfaceSyntheticGetAccessor(field), descriptor, true);
+                    invokeInterfaceAccessor(emitter, field, definition.getName(), opcode, owner, emitter.generateInterfaceSyntheticGetAccessor(field), descriptor);
                 }
 
                 return;
@@ -128,4 +232,89 @@ class IlluminateSyntheticVisitor extends MethodVisitor {
 
         super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
     }
+
+    /**
+     * @return Whether the descriptor is {@code ()T} with a non-void {@code T}
+     */
+    static boolean isGetterShape(String descriptor) {
+        return descriptor.charAt(1) == ')' && descriptor.charAt(2) != 'V';
+    }
+
+    /**
+     * @return Whether the descriptor is {@code (T)V}
+     */
+    static boolean isSetterShape(String descriptor) {
+        int length = descriptor.length();
+
+        if (length < 4 || descriptor.charAt(length - 1) != 'V' || descriptor.charAt(length - 2) != ')') {
+            return false;
+        }
+
+        return skipType(descriptor, 1) == length - 2;
+    }
+
+    /**
+     * @param descriptor A method descriptor
+     * @param offset     The start of a field type in the descriptor
+     * @return The offset just after the field type
+     */
+    private static int skipType(String descriptor, int offset) {
+        while (descriptor.charAt(offset) == '[') {
+            offset++;
+        }
+
+        return descriptor.charAt(offset) == 'L' ? descriptor.indexOf(';', offset) + 1 : offset + 1;
+    }
+
+    private static boolean isWide(char descriptor) {
+        return descriptor == 'J' || descriptor == 'D';
+    }
+
+    /**
+     * Pops the arguments from the stack, the last first
+     *
+     * @param offset The start of the first argument left to pop
+     */
+    private void popArguments(String descriptor, int offset) {
+        if (descriptor.charAt(offset) == ')') {
+            return;
+        }
+
+        popArguments(descriptor, skipType(descriptor, offset));
+        super.visitInsn(isWide(descriptor.charAt(offset)) ? Opcodes.POP2 : Opcodes.POP);
+    }
+
+    private boolean isDiscarded(String owner, String name, String descriptor) {
+        return !illuminate.discardedNames.isEmpty() && illuminate.discardedNames.contains(name)
+                && illuminate.discarded.contains(ReferenceIndex.memberKey(owner, name, descriptor));
+    }
+
+    private void apply(RewriteTable.Rewrite rewrite, int opcode, String owner) {
+        classVisitor.rewrites++;
+
+        if (rewrite.getOpcode() == Opcodes.LDC && (opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE)) {
+            // An instance getter of a constant, whose receiver is no longer needed
+            super.visitInsn(Opcodes.POP);
+        }
+
+        if (rewrite.isMerged() && devirtualizes(opcode)) {
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, rewrite.getName(), rewrite.getDescriptor(), false);
+        } else if (mv != null) {
+            rewrite.accept(mv);
+        }
+    }
+
+    private void invokeInterfaceAccessor(Emitter emitter, SyntheticField field, String target, int opcode, String owner, String name, String descriptor) {
+        if (emitter.storesInstanceFields()) {
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, emitter.getHolder(field), name, RewriteTable.withReceiver(target, descriptor), false);
+        } else if (emitter.mergesInterface() && devirtualizes(opcode)) {
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, name, descriptor, false);
+        } else {
+            super.visitMethodInsn(Opcodes.INVOKEINTERFACE, emitter.getInterface(), name, descriptor, true);
+        }
+    }
+
+    private boolean devirtualizes(int opcode) {
+        return illuminate.devirtualize && (opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD || opcode == Opcodes.INVOKEVIRTUAL);
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that the field and method references of transformed and emitted classes link, against a {@link ClassIndex}
+ * of the same classes, in parallel
+ *
+ * <p>Every reference is checked to resolve to a member of the right kind, {@code static} or not, and every concrete
+ * class to implement the abstract methods of its interfaces, including injected ones. References which cannot be
+ * resolved because unknown classes are in the way are skipped, so give the index a library covering the classpath
+ * for a complete check
+ */
+public class LinkageVerifier {
+
+    private final ClassIndex index;
+
+    public LinkageVerifier(ClassIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param classes The classes to verify, which should all be in the index
+     * @return The problems found, sorted by class
+     */
+    public List<Problem> verify(Collection<byte[]> classes) {
+        return classes.parallelStream()
+                .flatMap(bytes -> verify(bytes).stream())
+                .sorted(Comparator.comparing(Problem::getClassName).thenComparing(Problem::getMethod))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Builds an index of the classes and verifies them
+     *
+     * @param classes The classes to verify
+     * @param library Gives the bytes of classes outside the set by internal name, or null if unavailable
+     * @return The problems found, sorted by class
+     */
+    public static List<Problem> verify(Collection<byte[]> classes, Function<String, byte[]> library) {
+        return new LinkageVerifier(ClassIndex.build(classes, library)).verify(classes);
+    }
+
+    private List<Problem> verify(byte[] bytes) {
+        Checker checker = new Checker();
+        new ClassReader(bytes).accept(checker, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return checker.problems;
+    }
+
+    private void checkImplemented(String name, List<Problem> problems) {
+        if (!index.isComplete(name)) {
+            return;
+        }
+
+        Set<String> interfaces = new LinkedHashSet<>();
+        collectInterfaces(name, interfaces);
+
+        for (String itf : interfaces) {
+            ClassIndex.Entry entry = index.get(itf);
+
+            for (Map.Entry<String, Integer> method : entry.methods.entrySet()) {
+                if ((method.getValue() & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_STATIC)) != Opcodes.ACC_ABSTRACT) {
+                    continue;
+                }
+
+                String key = method.getKey();
+                int paren = key.indexOf('(');
+                ClassIndex.Member implementation = index.resolveMethod(name, key.substring(0, paren), key.substring(paren));
+
+                if (implementation == null || (implementation.access & Opcodes.ACC_ABSTRACT) != 0) {
+                    problems.add(new Problem(name, null, "Does not implement " + itf + "." + key));
+                }
+            }
+        }
+    }
+
+    private void collectInterfaces(String name, Set<String> interfaces) {
+        ClassIndex.Entry entry = index.get(name);
+
+        for (String parent : entry.getParents()) {
+            ClassIndex.Entry parentEntry = index.get(parent);
+
+            if ((parentEntry.access & Opcodes.ACC_INTERFACE) != 0) {
+                interfaces.add(parent);
+            }
+
+            collectInterfaces(parent, interfaces);
+        }
+    }
+
+    private class Checker extends ClassVisitor {
+
+        final List<Problem> problems = new ArrayList<>();
+        private String name;
+        private String self;
+
+        Checker() {
+            super(Opcodes.ASM8);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            String target = index.getMixinTarget(name);
+            this.name = name;
+            // A mixin's references to itself are references to its target once applied
+            this.self = target == null ? name : target;
+
+            if (target == null && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE)) == 0) {
+                checkImplemented(name, problems);
+            }
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String methodName, String methodDescriptor, String signature, String[] exceptions) {
+            String method = methodName + methodDescriptor;
+
+            return new MethodVisitor(Opcodes.ASM8) {
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    owner = owner.equals(Checker.this.name) ? self : owner;
+
+                    if (!index.isComplete(owner)) {
+                        return;
+                    }
+
+                    ClassIndex.Member field = index.resolveField(owner, name, descriptor);
+                    boolean isStatic = opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC;
+
+                    if (field == null) {
+                        report("Unresolved field " + owner + "." + name + ":" + descriptor);
+                    } else if (((field.access & Opcodes.ACC_STATIC) != 0) != isStatic) {
+                        report((isStatic ? "Static access to instance field " : "Instance access to static field ") + field.owner + "." + name + ":" + descriptor);
+                    }
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    owner = owner.equals(Checker.this.name) ? self : owner;
+
+                    // Array methods are inherited from Object, and are always fine
+                    if (owner.charAt(0) == '[' || !index.isComplete(owner)) {
+                        return;
+                    }
+
+                    boolean ownerIsInterface = index.isInterface(owner);
+
+                    if (opcode == Opcodes.INVOKEINTERFACE && !ownerIsInterface) {
+                        report("INVOKEINTERFACE on class " + owner);
+                        return;
+                    } else if (opcode == Opcodes.INVOKEVIRTUAL && ownerIsInterface) {
+                        report("INVOKEVIRTUAL on interface " + owner);
+                        return;
+                    }
+
+                    ClassIndex.Member method = index.resolveMethod(owner, name, descriptor);
+                    boolean isStatic = opcode == Opcodes.INVOKESTATIC;
+
+                    if (method == null) {
+                        report("Unresolved method " + owner + "." + name + descriptor);
+                    } else if (((method.access & Opcodes.ACC_STATIC) != 0) != isStatic) {
+                        report((isStatic ? "Static call to instance method " : "Instance call to static method ") + method.owner + "." + name + descriptor);
+                    }
+                }
+
+                private void report(String message) {
+                    problems.add(new Problem(Checker.this.name, method, message));
+                }
+            };
+        }
+    }
+
+    /**
+     * A reference which will fail to link at runtime
+     */
+    public static final class Problem {
+
+        private final String className;
+        private final String method;
+        private final String message;
+
+        Problem(String className, String method, String message) {
+            this.className = className;
+            this.method = method == null ? "" : method;
+            this.message = message;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return The name and descriptor of the method containing the reference, or an empty string for problems
+         * with the class itself
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return className + (method.isEmpty() ? "" : "." + method) + ": " + message;
+        }
+    }
+}
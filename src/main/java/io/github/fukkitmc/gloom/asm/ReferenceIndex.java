@@ -0,0 +1,314 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import io.github.fukkitmc.gloom.definitions.*;
+import org.objectweb.asm.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Records which classes reference which owners, and which members of defined owners, as seen by {@link Illuminate}
+ *
+ * <p>Owners are recorded as resolved by the {@link InheritanceProvider}. Members are only recorded for owners which
+ * had a definition at the time, or if they share a name with a synthetic member, which an owner the provider did not
+ * resolve may inherit. Owners are always recorded so that newly defined owners can be found.
+ * To keep the accessor names of untouched classes valid, re-illuminate the affected classes with the same kind of
+ * {@link io.github.fukkitmc.gloom.emitter.EmitterProvider}
+ *
+ * <p>The index does not hold the accessor names. {@link io.github.fukkitmc.gloom.emitter.AbstractEmitter Emitters}
+ * derive them from the target and the field alone, so an index {@link #write written} by one process can be
+ * {@link #read read} by another, which only re-illuminates the affected classes
+ */
+public class ReferenceIndex {
+
+    private static final int MAGIC = 0x474c4f4d;
+    private static final int VERSION = 2;
+
+    private final Map<String, References> classes = new HashMap<>();
+    private final Map<String, Set<String>> ownerReferences = new HashMap<>();
+    private final Map<String, Set<String>> memberReferences = new HashMap<>();
+    private final Map<String, Set<String>> writeReferences = new HashMap<>();
+
+    /**
+     * @param owner      The owner's internal name
+     * @param name       The member name
+     * @param descriptor The member descriptor
+     * @return The key a member is recorded under
+     */
+    public static String memberKey(String owner, String name, String descriptor) {
+        return owner + "." + name + ":" + descriptor;
+    }
+
+    /**
+     * Replaces everything recorded for a class
+     *
+     * @param name    The class's internal name
+     * @param owners  The resolved owners it references
+     * @param members The {@link #memberKey member keys} it reads or calls in defined owners
+     * @param writes  The member keys of the fields it writes in defined owners
+     */
+    synchronized void record(String name, Set<String> owners, Set<String> members, Set<String> writes) {
+        References previous = classes.put(name, new References(owners, members, writes));
+
+        if (previous != null) {
+            unlink(ownerReferences, previous.owners, name);
+            unlink(memberReferences, previous.members, name);
+            unlink(writeReferences, previous.writes, name);
+        }
+
+        link(ownerReferences, owners, name);
+        link(memberReferences, members, name);
+        link(writeReferences, writes, name);
+    }
+
+    /**
+     * @param name The class's internal name
+     */
+    public synchronized void remove(String name) {
+        References previous = classes.remove(name);
+
+        if (previous != null) {
+            unlink(ownerReferences, previous.owners, name);
+            unlink(memberReferences, previous.members, name);
+            unlink(writeReferences, previous.writes, name);
+        }
+    }
+
+    public synchronized Set<String> getClasses() {
+        return new HashSet<>(classes.keySet());
+    }
+
+    /**
+     * @param owner The owner's internal name
+     * @return The classes referencing the owner
+     */
+    public synchronized Set<String> getReferencingClasses(String owner) {
+        return new HashSet<>(ownerReferences.getOrDefault(owner, Collections.emptySet()));
+    }
+
+    /**
+     * @param owner      The owner's internal name
+     * @param name       The member name
+     * @param descriptor The member descriptor
+     * @return The classes referencing the member
+     */
+    public synchronized Set<String> getReferencingClasses(String owner, String name, String descriptor) {
+        String key = memberKey(owner, name, descriptor);
+        Set<String> classes = new HashSet<>(memberReferences.getOrDefault(key, Collections.emptySet()));
+        classes.addAll(writeReferences.getOrDefault(key, Collections.emptySet()));
+        return classes;
+    }
+
+    /**
+     * @return The {@link #memberKey keys} of every member read, called or written
+     */
+    public synchronized Set<String> getMembers() {
+        Set<String> members = new HashSet<>(memberReferences.keySet());
+        members.addAll(writeReferences.keySet());
+        return members;
+    }
+
+    /**
+     * @param owner      The owner's internal name
+     * @param name       The member name
+     * @param descriptor The member descriptor
+     * @return The classes reading the field or calling the method
+     */
+    public synchronized Set<String> getReadingClasses(String owner, String name, String descriptor) {
+        return new HashSet<>(memberReferences.getOrDefault(memberKey(owner, name, descriptor), Collections.emptySet()));
+    }
+
+    /**
+     * @param owner      The owner's internal name
+     * @param name       The field name
+     * @param descriptor The field descriptor
+     * @return The classes writing the field directly
+     */
+    public synchronized Set<String> getWritingClasses(String owner, String name, String descriptor) {
+        return new HashSet<>(writeReferences.getOrDefault(memberKey(owner, name, descriptor), Collections.emptySet()));
+    }
+
+    /**
+     * Finds the classes which need to be transformed again after the definitions change, including the owners
+     * whose definitions changed
+     *
+     * @param previous The definitions the index was recorded with
+     * @param next     The new definitions
+     * @return The internal names of the affected classes
+     */
+    public synchronized Set<String> findAffected(GloomDefinitions previous, GloomDefinitions next) {
+        Set<String> owners = new HashSet<>();
+        Set<String> affected = new HashSet<>();
+
+        owners.addAll(previous.getNames());
+        owners.addAll(next.getNames());
+
+        for (String owner : owners) {
+            ClassDefinition before = previous.get(owner);
+            ClassDefinition after = next.get(owner);
+
+            if (before != null && after != null
+                    && before.getInjectInterfaces().equals(after.getInjectInterfaces())
+                    && before.getSyntheticFields().equals(after.getSyntheticFields())
+                    && before.getSyntheticMethods().equals(after.getSyntheticMethods())) {
+                continue;
+            }
+
+            affected.add(owner);
+
+            if (before == null || after == null) {
+                affected.addAll(ownerReferences.getOrDefault(owner, Collections.emptySet()));
+                continue;
+            }
+
+            for (SyntheticField field : difference(before.getSyntheticFields(), after.getSyntheticFields())) {
+                Accessor getter = field.getGetter();
+                Accessor setter = field.getSetter();
+
+                addMember(affected, owner, field.getName(), field.getType().getDescriptor());
+
+                if (getter != null) {
+                    addMember(affected, owner, getter.getName(), Type.getMethodDescriptor(getter.getType()));
+                }
+
+                if (setter != null) {
+                    addMember(affected, owner, setter.getName(), Type.getMethodDescriptor(Type.VOID_TYPE, setter.getType()));
+                }
+
+                for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                    addMember(affected, owner, accessor.getName(), accessor.getDescriptor(field.getType()));
+                }
+            }
+
+            for (SyntheticMethod method : difference(before.getSyntheticMethods(), after.getSyntheticMethods())) {
+                addMember(affected, owner, method.getName(), method.getDescriptor());
+            }
+        }
+
+        return affected;
+    }
+
+    private void addMember(Set<String> affected, String owner, String name, String descriptor) {
+        String key = memberKey(owner, name, descriptor);
+        affected.addAll(memberReferences.getOrDefault(key, Collections.emptySet()));
+        affected.addAll(writeReferences.getOrDefault(key, Collections.emptySet()));
+    }
+
+    private static <T> Set<T> difference(Set<T> a, Set<T> b) {
+        Set<T> difference = new HashSet<>(a);
+        difference.addAll(b);
+        Set<T> common = new HashSet<>(a);
+        common.retainAll(b);
+        difference.removeAll(common);
+        return difference;
+    }
+
+    private static void link(Map<String, Set<String>> map, Set<String> keys, String name) {
+        for (String key : keys) {
+            map.computeIfAbsent(key, k -> new HashSet<>()).add(name);
+        }
+    }
+
+    private static void unlink(Map<String, Set<String>> map, Set<String> keys, String name) {
+        for (String key : keys) {
+            Set<String> names = map.get(key);
+
+            if (names != null && names.remove(name) && names.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded references, without any accessor names
+     *
+     * @param stream The stream, which is flushed but not closed
+     */
+    public synchronized void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(classes.size());
+
+        for (Map.Entry<String, References> entry : classes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeSet(out, entry.getValue().owners);
+            writeSet(out, entry.getValue().members);
+            writeSet(out, entry.getValue().writes);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Reads an index {@link #write written} earlier, possibly by another process
+     *
+     * @param stream The stream
+     * @return The index
+     */
+    public static ReferenceIndex read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a reference index");
+        }
+
+        ReferenceIndex index = new ReferenceIndex();
+        int size = in.readInt();
+
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            index.record(name, readSet(in), readSet(in), readSet(in));
+        }
+
+        return index;
+    }
+
+    private static void writeSet(DataOutputStream out, Set<String> set) throws IOException {
+        out.writeInt(set.size());
+
+        for (String s : set) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static Set<String> readSet(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Set<String> set = new HashSet<>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            set.add(in.readUTF());
+        }
+
+        return set;
+    }
+
+    private static class References {
+
+        final Set<String> owners;
+        final Set<String> members;
+        final Set<String> writes;
+
+        References(Set<String> owners, Set<String> members, Set<String> writes) {
+            this.owners = owners;
+            this.members = members;
+            this.writes = writes;
+        }
+    }
+}
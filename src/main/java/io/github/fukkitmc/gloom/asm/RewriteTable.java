@@ -0,0 +1,385 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import io.github.fukkitmc.gloom.definitions.*;
+import io.github.fukkitmc.gloom.emitter.Emitter;
+import io.github.fukkitmc.gloom.emitter.EmitterProvider;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * A read-only table mapping instructions to their rewritten form, compiled ahead of time from
+ * {@link GloomDefinitions definitions} and an {@link EmitterProvider}
+ *
+ * <p>Compiling assigns accessor names for every synthetic field up front, so the emitters will emit
+ * accessors for all of them rather than only for the ones which are referenced. Names are assigned in order of class,
+ * field and accessor names, so the same definitions give the same names however classes are transformed afterwards,
+ * unlike lazy {@link Illuminate illumination} from several threads
+ */
+public final class RewriteTable {
+
+    private static final int[] INVOKES = {Opcodes.INVOKEVIRTUAL, Opcodes.INVOKESPECIAL, Opcodes.INVOKESTATIC, Opcodes.INVOKEINTERFACE};
+
+    private final Map<Key, Rewrite> rewrites;
+    private final Set<String> owners;
+    private final Set<String> names = new HashSet<>();
+
+    private RewriteTable(Map<Key, Rewrite> rewrites, Set<String> owners) {
+        this.rewrites = rewrites;
+        this.owners = owners;
+
+        for (Key key : rewrites.keySet()) {
+            names.add(key.name);
+        }
+    }
+
+    public static RewriteTable compile(GloomDefinitions definitions, EmitterProvider<?> provider) {
+        Map<Key, Rewrite> rewrites = new HashMap<>();
+        Set<String> owners = new HashSet<>();
+
+        List<ClassDefinition> sorted = new ArrayList<>(definitions.getDefinitions());
+        sorted.sort(Comparator.comparing(ClassDefinition::getName));
+
+        for (ClassDefinition definition : sorted) {
+            String owner = definition.getName();
+            owners.add(owner);
+
+            for (SyntheticMethod method : definition.getSyntheticMethods()) {
+                RedirectTarget target = method.getRedirect();
+                Rewrite rewrite = new Rewrite(method.getOpcode(), target.getOwner(), target.getName(), target.getDescriptor(), target.isInterface(), false);
+
+                for (int opcode : INVOKES) {
+                    rewrites.put(new Key(opcode, owner, method.getName(), method.getDescriptor()), rewrite);
+                }
+            }
+
+            if (definition.getSyntheticFields().isEmpty()) {
+                continue;
+            }
+
+            Emitter emitter = provider.forClass(owner);
+
+            List<SyntheticField> fields = new ArrayList<>(definition.getSyntheticFields());
+            fields.sort(Comparator.comparing(SyntheticField::getName));
+
+            for (SyntheticField field : fields) {
+                if (field.isConstant()) {
+                    Rewrite constant = new Rewrite(field.getValue());
+                    rewrites.put(new Key(Opcodes.GETSTATIC, owner, field.getName(), field.getType().getDescriptor()), constant);
+
+                    if (field.getGetter() != null) {
+                        putAccessor(rewrites, owner, field.getGetter(), Type.getMethodDescriptor(field.getGetter().getType()), constant);
+                    }
+
+                    continue;
+                }
+
+                String descriptor = field.getType().getDescriptor();
+                String getDescriptor = Type.getMethodDescriptor(field.getType());
+                String setDescriptor = Type.getMethodDescriptor(Type.VOID_TYPE, field.getType());
+                Rewrite get, set;
+
+                if ((field.getAccess() & Opcodes.ACC_STATIC) != 0) {
+                    String holderField = emitter.generateHolderSyntheticField(field);
+
+                    if (holderField != null) {
+                        get = new Rewrite(Opcodes.GETSTATIC, emitter.getHolder(field), holderField, descriptor, false, false);
+                        set = new Rewrite(Opcodes.PUTSTATIC, emitter.getHolder(field), holderField, descriptor, false, false);
+                    } else {
+                        get = new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticGetAccessor(field), getDescriptor, false, false);
+                        set = new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticSetAccessor(field), setDescriptor, false, false);
+                    }
+
+                    rewrites.put(new Key(Opcodes.GETSTATIC, owner, field.getName(), descriptor), get);
+                    rewrites.put(new Key(Opcodes.PUTSTATIC, owner, field.getName(), descriptor), set);
+                } else if (emitter.storesInstanceFields()) {
+                    get = new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateInterfaceSyntheticGetAccessor(field), withReceiver(owner, getDescriptor), false, false);
+                    set = new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateInterfaceSyntheticSetAccessor(field), withReceiver(owner, setDescriptor), false, false);
+                    rewrites.put(new Key(Opcodes.GETFIELD, owner, field.getName(), descriptor), get);
+                    rewrites.put(new Key(Opcodes.PUTFIELD, owner, field.getName(), descriptor), set);
+                } else {
+                    get = new Rewrite(Opcodes.INVOKEINTERFACE, emitter.getInterface(), emitter.generateInterfaceSyntheticGetAccessor(field), getDescriptor, true, emitter.mergesInterface());
+                    set = new Rewrite(Opcodes.INVOKEINTERFACE, emitter.getInterface(), emitter.generateInterfaceSyntheticSetAccessor(field), setDescriptor, true, emitter.mergesInterface());
+                    rewrites.put(new Key(Opcodes.GETFIELD, owner, field.getName(), descriptor), get);
+                    rewrites.put(new Key(Opcodes.PUTFIELD, owner, field.getName(), descriptor), set);
+                }
+
+                Accessor getter = field.getGetter();
+                Accessor setter = field.getSetter();
+
+                if (getter != null) {
+                    putAccessor(rewrites, owner, getter, Type.getMethodDescriptor(getter.getType()), get);
+                }
+
+                if (setter != null) {
+                    putAccessor(rewrites, owner, setter, Type.getMethodDescriptor(Type.VOID_TYPE, setter.getType()), set);
+                }
+
+                List<AtomicAccessor> atomics = new ArrayList<>(field.getAtomicAccessors());
+                atomics.sort(Comparator.comparing(AtomicAccessor::getOperation).thenComparing(AtomicAccessor::getName));
+
+                for (AtomicAccessor accessor : atomics) {
+                    AtomicAccessor.Operation operation = accessor.getOperation();
+                    String atomicDescriptor = accessor.getDescriptor(field.getType());
+
+                    if ((field.getAccess() & Opcodes.ACC_STATIC) != 0) {
+                        rewrites.putIfAbsent(new Key(Opcodes.INVOKESTATIC, owner, accessor.getName(), atomicDescriptor), new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), emitter.generateHolderSyntheticAtomicAccessor(field, operation), atomicDescriptor, false, false));
+                    } else {
+                        String accessorName = emitter.generateInterfaceSyntheticAtomicAccessor(field, operation);
+                        Rewrite rewrite = emitter.storesInstanceFields()
+                                ? new Rewrite(Opcodes.INVOKESTATIC, emitter.getHolder(field), accessorName, withReceiver(owner, atomicDescriptor), false, false)
+                                : new Rewrite(Opcodes.INVOKEINTERFACE, emitter.getInterface(), accessorName, atomicDescriptor, true, emitter.mergesInterface());
+                        rewrites.putIfAbsent(new Key(Opcodes.INVOKEVIRTUAL, owner, accessor.getName(), atomicDescriptor), rewrite);
+                        rewrites.putIfAbsent(new Key(Opcodes.INVOKEINTERFACE, owner, accessor.getName(), atomicDescriptor), rewrite);
+                    }
+                }
+            }
+        }
+
+        return new RewriteTable(Collections.unmodifiableMap(rewrites), Collections.unmodifiableSet(owners));
+    }
+
+    /**
+     * @param owner      The receiver's internal name
+     * @param descriptor A method descriptor
+     * @return The descriptor of a static method taking the receiver before the descriptor's arguments
+     */
+    public static String withReceiver(String owner, String descriptor) {
+        return "(L" + owner + ";" + descriptor.substring(1);
+    }
+
+    private static void putAccessor(Map<Key, Rewrite> rewrites, String owner, Accessor accessor, String descriptor, Rewrite rewrite) {
+        if ((accessor.getAccess() & Opcodes.ACC_STATIC) != 0) {
+            rewrites.putIfAbsent(new Key(Opcodes.INVOKESTATIC, owner, accessor.getName(), descriptor), rewrite);
+        } else {
+            rewrites.putIfAbsent(new Key(Opcodes.INVOKEVIRTUAL, owner, accessor.getName(), descriptor), rewrite);
+            rewrites.putIfAbsent(new Key(Opcodes.INVOKEINTERFACE, owner, accessor.getName(), descriptor), rewrite);
+        }
+    }
+
+    /**
+     * Pushes a constant with the shortest instruction for it
+     *
+     * @param visitor The method
+     * @param value   An {@link Integer}, {@link Float}, {@link Long}, {@link Double} or {@link String}
+     */
+    public static void push(MethodVisitor visitor, Object value) {
+        if (value instanceof Integer) {
+            int i = (Integer) value;
+
+            if (i >= -1 && i <= 5) {
+                visitor.visitInsn(Opcodes.ICONST_0 + i);
+            } else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+                visitor.visitIntInsn(Opcodes.BIPUSH, i);
+            } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+                visitor.visitIntInsn(Opcodes.SIPUSH, i);
+            } else {
+                visitor.visitLdcInsn(value);
+            }
+        } else if (value instanceof Long && ((Long) value == 0L || (Long) value == 1L)) {
+            visitor.visitInsn(Opcodes.LCONST_0 + ((Long) value).intValue());
+        } else if (value instanceof Float && (Float.floatToIntBits((Float) value) == 0 || (Float) value == 1F || (Float) value == 2F)) {
+            visitor.visitInsn(Opcodes.FCONST_0 + ((Float) value).intValue());
+        } else if (value instanceof Double && (Double.doubleToLongBits((Double) value) == 0 || (Double) value == 1D)) {
+            visitor.visitInsn(Opcodes.DCONST_0 + ((Double) value).intValue());
+        } else {
+            visitor.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * @param opcode     The instruction's opcode
+     * @param owner      The resolved owner
+     * @param name       The member name
+     * @param descriptor The member descriptor
+     * @return The replacement instruction, or null if the instruction is left as is
+     */
+    public Rewrite get(int opcode, String owner, String name, String descriptor) {
+        return owners.contains(owner) ? rewrites.get(new Key(opcode, owner, name, descriptor)) : null;
+    }
+
+    /**
+     * Looks up an instruction without allocating
+     *
+     * @param probe A key owned by the caller, which is overwritten
+     * @return The replacement instruction, or null if the instruction is left as is
+     */
+    Rewrite get(Key probe, int opcode, String owner, String name, String descriptor) {
+        return owners.contains(owner) ? rewrites.get(probe.set(opcode, owner, name, descriptor)) : null;
+    }
+
+    /**
+     * @return The internal names of every class with a definition
+     */
+    public Set<String> getOwners() {
+        return owners;
+    }
+
+    /**
+     * @return The names of every rewritten member
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(names);
+    }
+
+    public int size() {
+        return rewrites.size();
+    }
+
+    /**
+     * A replacement field or method instruction
+     */
+    public static final class Rewrite {
+
+        private final int opcode;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+        private final boolean isInterface;
+        private final boolean merged;
+        private final Object constant;
+
+        Rewrite(int opcode, String owner, String name, String descriptor, boolean isInterface, boolean merged) {
+            this.opcode = opcode;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.isInterface = isInterface;
+            this.merged = merged;
+            this.constant = null;
+        }
+
+        /**
+         * A read folded to a constant, with {@link Opcodes#LDC} as its opcode
+         */
+        Rewrite(Object constant) {
+            this.opcode = Opcodes.LDC;
+            this.owner = null;
+            this.name = null;
+            this.descriptor = null;
+            this.isInterface = false;
+            this.merged = false;
+            this.constant = constant;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        public boolean isInterface() {
+            return isInterface;
+        }
+
+        /**
+         * @return Whether this calls an interface accessor which is merged into the target class
+         * @see Emitter#mergesInterface()
+         */
+        public boolean isMerged() {
+            return merged;
+        }
+
+        /**
+         * @return The constant pushed instead, if the opcode is {@link Opcodes#LDC}
+         */
+        public Object getConstant() {
+            return constant;
+        }
+
+        public void accept(MethodVisitor visitor) {
+            if (opcode == Opcodes.LDC) {
+                push(visitor, constant);
+            } else if (opcode >= Opcodes.GETSTATIC && opcode <= Opcodes.PUTFIELD) {
+                visitor.visitFieldInsn(opcode, owner, name, descriptor);
+            } else {
+                visitor.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Rewrite{" +
+                    "opcode=" + opcode +
+                    ", owner='" + owner + '\'' +
+                    ", name='" + name + '\'' +
+                    ", descriptor='" + descriptor + '\'' +
+                    ", isInterface=" + isInterface +
+                    ", merged=" + merged +
+                    ", constant=" + constant +
+                    '}';
+        }
+    }
+
+    /**
+     * A key of the table. Keys in the table are never changed, while a probe is {@link #set} for every lookup
+     */
+    static final class Key {
+
+        private int opcode;
+        private String owner;
+        private String name;
+        private String descriptor;
+        private int hash;
+
+        Key(int opcode, String owner, String name, String descriptor) {
+            set(opcode, owner, name, descriptor);
+        }
+
+        Key() {
+        }
+
+        Key set(int opcode, String owner, String name, String descriptor) {
+            this.opcode = opcode;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.hash = ((opcode * 31 + owner.hashCode()) * 31 + name.hashCode()) * 31 + descriptor.hashCode();
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return opcode == key.opcode &&
+                    owner.equals(key.owner) &&
+                    name.equals(key.name) &&
+                    descriptor.equals(key.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.asm;
+
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates the {@code VarHandle} code behind {@link AtomicAccessor atomic accessors}
+ */
+public final class VarHandles {
+
+    public static final String DESCRIPTOR = "Ljava/lang/invoke/VarHandle;";
+    /**
+     * The stack needed by {@link #initialize}
+     */
+    public static final int INITIALIZE_STACK = 4;
+
+    private VarHandles() {
+    }
+
+    /**
+     * @param field Field
+     * @return The name of the static field holding the field's handle
+     */
+    public static String getHandleName(SyntheticField field) {
+        return field.getName() + "$gloomHandle";
+    }
+
+    /**
+     * Looks up the handle of a field and stores it, for use in a static initializer
+     *
+     * @param method The static initializer
+     * @param owner  The class declaring the field, which must be the class being initialized
+     * @param field  Field
+     * @param holder The class declaring the handle field, as referenced from the initializer
+     */
+    public static void initialize(MethodVisitor method, String owner, SyntheticField field, String holder) {
+        boolean isStatic = (field.getAccess() & Opcodes.ACC_STATIC) != 0;
+
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", false);
+        method.visitLdcInsn(Type.getObjectType(owner));
+        method.visitLdcInsn(field.getName());
+        pushClass(method, field.getType());
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandles$Lookup", isStatic ? "findStaticVarHandle" : "findVarHandle", "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/Class;)" + DESCRIPTOR, false);
+        method.visitFieldInsn(Opcodes.PUTSTATIC, holder, getHandleName(field), DESCRIPTOR);
+    }
+
+    /**
+     * Generates the whole body of an atomic accessor
+     *
+     * @param method    The accessor, taking the receiver as its first local if the field is not static
+     * @param holder    The class declaring the handle field
+     * @param field     Field
+     * @param operation The operation
+     * @param receiver  The receiver's descriptor, or null if the field is static
+     */
+    public static void accessor(MethodVisitor method, String holder, SyntheticField field, AtomicAccessor.Operation operation, String receiver) {
+        Type type = field.getType();
+        int local = 0;
+
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, holder, getHandleName(field), DESCRIPTOR);
+
+        if (receiver != null) {
+            method.visitVarInsn(Opcodes.ALOAD, local++);
+        }
+
+        method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), local);
+        local += type.getSize();
+
+        if (operation == AtomicAccessor.Operation.COMPARE_AND_SET) {
+            method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), local);
+            local += type.getSize();
+        }
+
+        Type returnType = Type.getReturnType(operation.getDescriptor(type));
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/invoke/VarHandle", operation.getMethod(), operation.getHandleDescriptor(receiver, type), false);
+        method.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        method.visitMaxs(local + 1, local);
+        method.visitEnd();
+    }
+
+    private static void pushClass(MethodVisitor method, Type type) {
+        String box;
+
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                box = "java/lang/Boolean";
+                break;
+            case Type.CHAR:
+                box = "java/lang/Character";
+                break;
+            case Type.BYTE:
+                box = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                box = "java/lang/Short";
+                break;
+            case Type.INT:
+                box = "java/lang/Integer";
+                break;
+            case Type.FLOAT:
+                box = "java/lang/Float";
+                break;
+            case Type.LONG:
+                box = "java/lang/Long";
+                break;
+            case Type.DOUBLE:
+                box = "java/lang/Double";
+                break;
+            default:
+                method.visitLdcInsn(type);
+                return;
+        }
+
+        method.visitFieldInsn(Opcodes.GETSTATIC, box, "TYPE", "Ljava/lang/Class;");
+    }
+}
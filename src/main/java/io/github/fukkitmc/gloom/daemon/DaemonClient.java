@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.daemon;
+
+import io.github.fukkitmc.gloom.jar.ClassTransformer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A connection to a {@link TransformDaemon}, usable as a {@link ClassTransformer} in place of a local one. Requests
+ * are serialized, so open a client per thread to transform in parallel
+ */
+public class DaemonClient implements ClassTransformer, Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * @param port  The daemon's loopback port
+     * @param token The daemon's token
+     */
+    public DaemonClient(int port, long token) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+
+        try {
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(Protocol.MAGIC);
+            out.writeInt(Protocol.VERSION);
+            out.writeLong(token);
+            out.flush();
+
+            if (!in.readBoolean()) {
+                throw new IOException("Rejected by the daemon on port " + port);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param info A file written by {@link TransformDaemon#writeInfo(Path)}
+     * @return A client connected to the daemon
+     */
+    public static DaemonClient connect(Path info) throws IOException {
+        String[] parts = new String(Files.readAllBytes(info), StandardCharsets.US_ASCII).trim().split(" ");
+
+        if (parts.length != 2) {
+            throw new IOException("Malformed daemon info in " + info);
+        }
+
+        try {
+            return new DaemonClient(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed daemon info in " + info, e);
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException  If the connection fails
+     * @throws IllegalStateException If the transform failed in the daemon
+     */
+    @Override
+    public byte[] transform(String name, byte[] bytes) {
+        try {
+            return transformAll(Collections.singletonMap(name, bytes)).get(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Transforms a batch of classes, in as few round trips as the daemon's batch limits allow
+     *
+     * @param classes The class files, by internal name
+     * @return The classes which were changed, by internal name
+     * @throws IllegalStateException If a transform failed in the daemon
+     */
+    public synchronized Map<String, byte[]> transformAll(Map<String, byte[]> classes) throws IOException {
+        Map<String, byte[]> transformed = new LinkedHashMap<>();
+        List<String> batch = new ArrayList<>();
+        long size = 0;
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            int length = entry.getValue().length;
+
+            if (!batch.isEmpty() && (batch.size() == Protocol.MAX_BATCH || size + length > Protocol.MAX_BATCH_BYTES)) {
+                transformBatch(batch, classes, transformed);
+                batch.clear();
+                size = 0;
+            }
+
+            batch.add(entry.getKey());
+            size += length;
+        }
+
+        if (!batch.isEmpty()) {
+            transformBatch(batch, classes, transformed);
+        }
+
+        return transformed;
+    }
+
+    private void transformBatch(List<String> names, Map<String, byte[]> classes, Map<String, byte[]> transformed) throws IOException {
+        out.writeByte(Protocol.TRANSFORM);
+        out.writeInt(names.size());
+
+        for (String name : names) {
+            out.writeUTF(name);
+            Protocol.writeBytes(out, classes.get(name));
+        }
+
+        out.flush();
+
+        String failure = null;
+
+        // Every answer is read even after a failure, to keep the connection usable
+        for (String name : names) {
+            int status = in.readUnsignedByte();
+
+            if (status == Protocol.CHANGED) {
+                transformed.put(name, Protocol.readBytes(in));
+            } else if (status == Protocol.FAILED) {
+                String message = in.readUTF();
+
+                if (failure == null) {
+                    failure = "Failed to transform " + name + ": " + message;
+                }
+            } else if (status != Protocol.UNCHANGED) {
+                throw new IOException("Unknown status " + status);
+            }
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    /**
+     * @return The classes the daemon's emitters have generated so far, by internal name
+     */
+    public synchronized Map<String, byte[]> getEmittedClasses() throws IOException {
+        out.writeByte(Protocol.EMITTED);
+        out.flush();
+
+        int count = in.readInt();
+        Map<String, byte[]> classes = new TreeMap<>();
+
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            classes.put(name, Protocol.readBytes(in));
+        }
+
+        return classes;
+    }
+
+    /**
+     * Stops the daemon, and closes this client
+     */
+    public synchronized void shutdown() throws IOException {
+        try {
+            out.writeByte(Protocol.SHUTDOWN);
+            out.flush();
+            in.readBoolean();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket.isClosed()) {
+            return;
+        }
+
+        try {
+            out.writeByte(Protocol.CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
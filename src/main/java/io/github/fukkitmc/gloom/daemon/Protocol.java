@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The wire format between {@link TransformDaemon} and {@link DaemonClient}
+ *
+ * <p>A client opens with the magic, version and the daemon's token, which the daemon acknowledges. Each request then
+ * starts with an operation, and the client ends the connection with {@link #CLOSE}
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x474c4d44;
+    static final int VERSION = 1;
+
+    static final int CLOSE = 0;
+    /**
+     * A count of classes, each with its internal name and bytes. Once all of them are read, answered with a status for
+     * each class, followed by the transformed bytes or the failure message
+     */
+    static final int TRANSFORM = 1;
+    /**
+     * Answered with the classes emitted so far, as a count of classes with their internal names and bytes
+     */
+    static final int EMITTED = 2;
+    /**
+     * Stops the daemon once acknowledged
+     */
+    static final int SHUTDOWN = 3;
+
+    static final int UNCHANGED = 0;
+    static final int CHANGED = 1;
+    static final int FAILED = 2;
+
+    /**
+     * The largest class file either side accepts, well above what a constant pool can address
+     */
+    static final int MAX_BYTES = 16 << 20;
+    /**
+     * The most classes, and bytes of class files, in one {@link #TRANSFORM} request, which the daemon holds in
+     * memory at once. Clients split larger batches
+     */
+    static final int MAX_BATCH = 4096;
+    static final int MAX_BATCH_BYTES = 64 << 20;
+
+    private static final int MAX_MESSAGE = 0x3fff;
+
+    private Protocol() {
+    }
+
+    /**
+     * @throws IOException If the length is negative or above {@link #MAX_BYTES}, as sent by a broken or hostile peer
+     */
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_BYTES) {
+            throw new IOException("Invalid length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeClasses(DataOutputStream out, Map<String, byte[]> classes) throws IOException {
+        out.writeInt(classes.size());
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeBytes(out, entry.getValue());
+        }
+    }
+
+    static void writeMessage(DataOutputStream out, String message) throws IOException {
+        // Keeps the modified UTF-8 well below its limit of 65535 bytes
+        out.writeUTF(message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.daemon;
+
+import io.github.fukkitmc.gloom.asm.ClassIndex;
+import io.github.fukkitmc.gloom.asm.Illuminate;
+import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
+import io.github.fukkitmc.gloom.emitter.EmitterProvider;
+import io.github.fukkitmc.gloom.emitter.emitters.GeneratedClasses;
+import io.github.fukkitmc.gloom.jar.ClassTransformer;
+import io.github.fukkitmc.gloom.jar.GloomClassTransformer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.*;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Serves transforms over a loopback socket, so the definitions, hierarchy and JIT-warmed transformer stay resident
+ * between build invocations. Use a {@link DaemonClient} to connect
+ *
+ * <p>Connections are served in parallel, so the transformer has to be thread safe. Clients have to present the
+ * daemon's random token, as the socket is reachable by every local user
+ */
+public class TransformDaemon implements Closeable {
+
+    private static final long MIN_BACKOFF = 10;
+    private static final long MAX_BACKOFF = 1000;
+
+    private final ClassTransformer transformer;
+    private final Supplier<Map<String, byte[]>> emitted;
+    private final ServerSocket server;
+    private final long token = new SecureRandom().nextLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Gloom Transform Daemon Connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    /**
+     * @param transformer The transformer, which has to be thread safe
+     * @param emitted     Gives the classes emitted so far, by internal name
+     * @param port        The loopback port to listen on, or 0 for any free port
+     */
+    public TransformDaemon(ClassTransformer transformer, Supplier<Map<String, byte[]>> emitted, int port) throws IOException {
+        this.transformer = transformer;
+        this.emitted = emitted;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public TransformDaemon(ClassTransformer transformer, Supplier<Map<String, byte[]>> emitted) throws IOException {
+        this(transformer, emitted, 0);
+    }
+
+    /**
+     * Creates a daemon injecting and illuminating with the definitions, and emitting through the provider
+     *
+     * @param definitions The definitions
+     * @param provider    The emitter provider, kept across requests so accessor names stay stable
+     * @param hierarchy   The hierarchy, used to resolve owners and to write classes
+     * @return The daemon, not started yet
+     */
+    public static TransformDaemon create(GloomDefinitions definitions, EmitterProvider<?> provider, ClassIndex hierarchy) throws IOException {
+        Illuminate illuminate = new Illuminate(definitions, provider, hierarchy);
+        return new TransformDaemon(new GloomClassTransformer(definitions, illuminate, hierarchy), () -> {
+            GeneratedClasses classes = GeneratedClasses.emit(provider);
+            Map<String, byte[]> all = new TreeMap<>(classes.getInterfaces());
+            all.putAll(classes.getHolders());
+            all.putAll(classes.getMixins());
+            return all;
+        });
+    }
+
+    /**
+     * Starts accepting connections on a background thread
+     *
+     * @return This daemon
+     */
+    public TransformDaemon start() {
+        Thread thread = new Thread(this::accept, "Gloom Transform Daemon");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Writes the port and token for {@link DaemonClient#connect(Path)}. The file is replaced and only made readable by
+     * its owner, through POSIX permissions or an ACL
+     *
+     * @param path The file to write
+     */
+    public void writeInfo(Path path) throws IOException {
+        Files.deleteIfExists(path);
+
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } else {
+            Files.createFile(path);
+            AclFileAttributeView view = Files.getFileAttributeView(path, AclFileAttributeView.class);
+
+            if (view != null) {
+                view.setAcl(Collections.singletonList(AclEntry.newBuilder()
+                        .setType(AclEntryType.ALLOW)
+                        .setPrincipal(view.getOwner())
+                        .setPermissions(AclEntryPermission.values())
+                        .build()));
+            }
+        }
+
+        Files.write(path, (getPort() + " " + token).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Blocks until the daemon is closed, either locally or by a client
+     */
+    public void awaitTermination() throws InterruptedException {
+        terminated.await();
+    }
+
+    private void accept() {
+        long backoff = 0;
+
+        while (!closed) {
+            Socket socket;
+
+            try {
+                socket = server.accept();
+                backoff = 0;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+
+                if (server.isClosed()) {
+                    // Nothing more can be accepted, so wake up whoever awaits termination
+                    closeQuietly();
+                    return;
+                }
+
+                // Such as running out of file descriptors, which retrying in a tight loop would only make worse
+                backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF), MAX_BACKOFF);
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    closeQuietly();
+                    return;
+                }
+
+                continue;
+            }
+
+            try {
+                executor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                // Closed in the meantime
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            boolean accepted = in.readInt() == Protocol.MAGIC && in.readInt() == Protocol.VERSION && in.readLong() == token;
+            out.writeBoolean(accepted);
+            out.flush();
+
+            while (accepted) {
+                int operation = in.readUnsignedByte();
+
+                if (operation == Protocol.CLOSE) {
+                    return;
+                } else if (operation == Protocol.TRANSFORM) {
+                    transform(in, out);
+                } else if (operation == Protocol.EMITTED) {
+                    Protocol.writeClasses(out, emitted.get());
+                } else if (operation == Protocol.SHUTDOWN) {
+                    out.writeBoolean(true);
+                    out.flush();
+                    close();
+                    return;
+                } else {
+                    throw new IOException("Unknown operation " + operation);
+                }
+
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away or sent garbage, and sees the connection close either way
+        }
+    }
+
+    private void transform(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readInt();
+
+        if (count < 0 || count > Protocol.MAX_BATCH) {
+            throw new IOException("Invalid batch size " + count);
+        }
+
+        String[] names = new String[count];
+        byte[][] classes = new byte[count][];
+        long size = 0;
+
+        // The client may send the whole batch before reading, so nothing is written until all of it is read
+        for (int i = 0; i < count; i++) {
+            names[i] = in.readUTF();
+            classes[i] = Protocol.readBytes(in);
+            size += classes[i].length;
+
+            if (size > Protocol.MAX_BATCH_BYTES) {
+                throw new IOException("Batch exceeds " + Protocol.MAX_BATCH_BYTES + " bytes");
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            byte[] transformed;
+
+            try {
+                transformed = transformer.transform(names[i], classes[i]);
+                classes[i] = null;
+            } catch (RuntimeException e) {
+                out.writeByte(Protocol.FAILED);
+                Protocol.writeMessage(out, String.valueOf(e));
+                continue;
+            }
+
+            if (transformed == null) {
+                out.writeByte(Protocol.UNCHANGED);
+            } else {
+                out.writeByte(Protocol.CHANGED);
+                Protocol.writeBytes(out, transformed);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            server.close();
+        } finally {
+            executor.shutdown();
+            terminated.countDown();
+        }
+    }
+}
@@ -26,6 +26,9 @@ public class Accessor {
     private final Type type;
     private final String name;
     private final String signature;
+    // Computed on first use, as the hot path of Illuminate compares against them
+    private transient String getterDescriptor;
+    private transient String setterDescriptor;
 
     public Accessor(int access, Type type, String name, String signature) {
         this.access = access;
@@ -50,6 +53,32 @@ public class Accessor {
         return signature;
     }
 
+    /**
+     * @return The descriptor of this accessor as a getter, {@code ()T}
+     */
+    public String getGetterDescriptor() {
+        String descriptor = getterDescriptor;
+
+        if (descriptor == null) {
+            getterDescriptor = descriptor = Type.getMethodDescriptor(type);
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @return The descriptor of this accessor as a setter, {@code (T)V}
+     */
+    public String getSetterDescriptor() {
+        String descriptor = setterDescriptor;
+
+        if (descriptor == null) {
+            setterDescriptor = descriptor = Type.getMethodDescriptor(Type.VOID_TYPE, type);
+        }
+
+        return descriptor;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
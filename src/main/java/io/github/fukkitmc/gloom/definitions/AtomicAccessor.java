@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.definitions;
+
+import org.objectweb.asm.Type;
+
+import java.util.Objects;
+
+/**
+ * An atomic operation on a {@link SyntheticField}, backed by a {@code java.lang.invoke.VarHandle}.
+ * Fields with atomic accessors are always emitted as volatile, and require Java 9 to run
+ */
+public class AtomicAccessor {
+
+    private final Operation operation;
+    private final int access;
+    private final String name;
+
+    public AtomicAccessor(Operation operation, int access, String name) {
+        this.operation = operation;
+        this.access = access;
+        this.name = name;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param type The field type
+     * @return The accessor's method descriptor, excluding the receiver
+     */
+    public String getDescriptor(Type type) {
+        return operation.getDescriptor(type);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AtomicAccessor that = (AtomicAccessor) o;
+        return access == that.access &&
+                operation == that.operation &&
+                Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operation, access, name);
+    }
+
+    @Override
+    public String toString() {
+        return "AtomicAccessor{" +
+                "operation=" + operation +
+                ", access=" + access +
+                ", name='" + name + '\'' +
+                '}';
+    }
+
+    public enum Operation {
+        /**
+         * {@code boolean (T expected, T value)}
+         */
+        COMPARE_AND_SET("compareAndSet"),
+        /**
+         * {@code T (T value)}
+         */
+        GET_AND_SET("getAndSet"),
+        /**
+         * {@code T (T delta)}, for numeric fields
+         */
+        GET_AND_ADD("getAndAdd");
+
+        private final String method;
+
+        Operation(String method) {
+            this.method = method;
+        }
+
+        /**
+         * @return The name of the {@code VarHandle} method
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @param type The field type
+         * @return Whether the {@code VarHandle} supports the operation on fields of the type
+         */
+        public boolean supports(Type type) {
+            if (this != GET_AND_ADD) {
+                return true;
+            }
+
+            switch (type.getSort()) {
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                case Type.LONG:
+                case Type.FLOAT:
+                case Type.DOUBLE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        public String getDescriptor(Type type) {
+            if (this == COMPARE_AND_SET) {
+                return Type.getMethodDescriptor(Type.BOOLEAN_TYPE, type, type);
+            }
+
+            return Type.getMethodDescriptor(type, type);
+        }
+
+        /**
+         * @param receiver The receiver's descriptor, or null for static fields
+         * @param type     The field type
+         * @return The descriptor to invoke the {@code VarHandle} method with
+         */
+        public String getHandleDescriptor(String receiver, Type type) {
+            String descriptor = getDescriptor(type);
+            return receiver == null ? descriptor : "(" + receiver + descriptor.substring(1);
+        }
+    }
+}
@@ -54,7 +54,7 @@ public class ClassDefinition {
 
     public SyntheticField findSyntheticField(String name, String descriptor) {
         for (SyntheticField field : syntheticFields) {
-            if (field.getName().equals(name) && field.getType().getDescriptor().equals(descriptor)) {
+            if (field.getName().equals(name) && field.getDescriptor().equals(descriptor)) {
                 return field;
             }
         }
@@ -72,28 +72,44 @@ public class ClassDefinition {
         return null;
     }
 
+    /**
+     * @param name       The accessor name
+     * @param descriptor The accessor's method descriptor
+     * @return The field with the getter, or null
+     */
     public SyntheticField findSyntheticGetter(String name, String descriptor) {
         for (SyntheticField field : syntheticFields) {
-            if (field.getName().equals(name)) {
-                Accessor accessor = field.getGetter();
+            Accessor accessor = field.getGetter();
 
-                if (accessor != null && accessor.getType().getDescriptor().equals(descriptor)) {
-                    return field;
-                }
+            if (accessor != null && accessor.getName().equals(name) && accessor.getGetterDescriptor().equals(descriptor)) {
+                return field;
             }
         }
 
         return null;
     }
 
+    /**
+     * @param name       The accessor name
+     * @param descriptor The accessor's method descriptor
+     * @return The field with the setter, or null
+     */
     public SyntheticField findSyntheticSetter(String name, String descriptor) {
         for (SyntheticField field : syntheticFields) {
-            if (field.getName().equals(name)) {
-                Accessor accessor = field.getSetter();
+            Accessor accessor = field.getSetter();
+
+            if (accessor != null && accessor.getName().equals(name) && accessor.getSetterDescriptor().equals(descriptor)) {
+                return field;
+            }
+        }
 
-                if (accessor != null && accessor.getType().getDescriptor().equals(descriptor)) {
-                    return field;
-                }
+        return null;
+    }
+
+    public SyntheticField findSyntheticAtomicField(String name, String descriptor) {
+        for (SyntheticField field : syntheticFields) {
+            if (field.findAtomicAccessor(name, descriptor) != null) {
+                return field;
             }
         }
 
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.definitions;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Remaps {@link GloomDefinitions definitions} between mapping namespaces with a {@link Remapper}
+ *
+ * <p>Types, descriptors and signatures are memoized, as the same few are shared by most members, and class
+ * definitions are remapped in parallel. The remapper must be safe to call from multiple threads. Synthetic members
+ * are looked up by their own owner, name and descriptor, so they keep their names unless the mappings name them
+ */
+public class DefinitionRemapper {
+
+    private final Remapper remapper;
+    private final ConcurrentMap<String, String> types = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> descriptors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> typeSignatures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> signatures = new ConcurrentHashMap<>();
+
+    public DefinitionRemapper(Remapper remapper) {
+        this.remapper = remapper;
+    }
+
+    /**
+     * @param definitions The definitions
+     * @return The remapped definitions
+     */
+    public GloomDefinitions remap(GloomDefinitions definitions) {
+        return new GloomDefinitions(definitions.getDefinitions()
+                .parallelStream()
+                .map(this::remap)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * @param definition The class definition
+     * @return The remapped class definition
+     */
+    public ClassDefinition remap(ClassDefinition definition) {
+        String owner = definition.getName();
+        Set<String> injectInterfaces = new HashSet<>();
+        Set<SyntheticField> syntheticFields = new HashSet<>();
+        Set<SyntheticMethod> syntheticMethods = new HashSet<>();
+
+        for (String itf : definition.getInjectInterfaces()) {
+            injectInterfaces.add(mapType(itf));
+        }
+
+        for (SyntheticField field : definition.getSyntheticFields()) {
+            syntheticFields.add(remap(owner, field));
+        }
+
+        for (SyntheticMethod method : definition.getSyntheticMethods()) {
+            syntheticMethods.add(remap(owner, method));
+        }
+
+        return new ClassDefinition(mapType(owner), injectInterfaces, syntheticFields, syntheticMethods);
+    }
+
+    private SyntheticField remap(String owner, SyntheticField field) {
+        Type type = field.getType();
+        Set<AtomicAccessor> atomicAccessors = new HashSet<>();
+
+        for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+            String name = remapper.mapMethodName(owner, accessor.getName(), accessor.getDescriptor(type));
+            atomicAccessors.add(new AtomicAccessor(accessor.getOperation(), accessor.getAccess(), name));
+        }
+
+        return new SyntheticField(field.getAccess(),
+                remapper.mapFieldName(owner, field.getName(), type.getDescriptor()),
+                mapType(type),
+                mapSignature(field.getSignature(), true),
+                remapGetter(owner, field.getGetter()),
+                remapSetter(owner, field.getSetter()),
+                atomicAccessors,
+                field.getValue());
+    }
+
+    private Accessor remapGetter(String owner, Accessor accessor) {
+        if (accessor == null) {
+            return null;
+        }
+
+        String name = remapper.mapMethodName(owner, accessor.getName(), Type.getMethodDescriptor(accessor.getType()));
+        return new Accessor(accessor.getAccess(), mapType(accessor.getType()), name, mapSignature(accessor.getSignature(), false));
+    }
+
+    private Accessor remapSetter(String owner, Accessor accessor) {
+        if (accessor == null) {
+            return null;
+        }
+
+        String name = remapper.mapMethodName(owner, accessor.getName(), Type.getMethodDescriptor(Type.VOID_TYPE, accessor.getType()));
+        return new Accessor(accessor.getAccess(), mapType(accessor.getType()), name, mapSignature(accessor.getSignature(), false));
+    }
+
+    private SyntheticMethod remap(String owner, SyntheticMethod method) {
+        RedirectTarget redirect = method.getRedirect();
+
+        if (redirect != null) {
+            redirect = new RedirectTarget(mapType(redirect.getOwner()),
+                    remapper.mapMethodName(redirect.getOwner(), redirect.getName(), redirect.getDescriptor()),
+                    mapDescriptor(redirect.getDescriptor()),
+                    redirect.isInterface());
+        }
+
+        return new SyntheticMethod(method.getOpcode(),
+                method.getAccess(),
+                remapper.mapMethodName(owner, method.getName(), method.getDescriptor()),
+                mapDescriptor(method.getDescriptor()),
+                mapSignature(method.getSignature(), false),
+                redirect);
+    }
+
+    private String mapType(String internalName) {
+        return types.computeIfAbsent(internalName, remapper::mapType);
+    }
+
+    private Type mapType(Type type) {
+        // Primitives are shared constants, and never change
+        if (type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) {
+            return type;
+        }
+
+        return Type.getType(mapDescriptor(type.getDescriptor()));
+    }
+
+    private String mapDescriptor(String descriptor) {
+        return descriptors.computeIfAbsent(descriptor, d -> d.charAt(0) == '(' ? remapper.mapMethodDesc(d) : remapper.mapDesc(d));
+    }
+
+    private String mapSignature(String signature, boolean typeSignature) {
+        if (signature == null) {
+            return null;
+        }
+
+        return (typeSignature ? typeSignatures : signatures).computeIfAbsent(signature, s -> remapper.mapSignature(s, typeSignature));
+    }
+}
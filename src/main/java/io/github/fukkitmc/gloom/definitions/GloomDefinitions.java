@@ -16,6 +16,9 @@
 
 package io.github.fukkitmc.gloom.definitions;
 
+import io.github.fukkitmc.gloom.jfr.DefinitionsMergeEvent;
+import io.github.fukkitmc.gloom.jfr.Events;
+
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -31,6 +34,13 @@ public class GloomDefinitions {
         this.definitions = definitions.stream().collect(Collectors.toMap(ClassDefinition::getName, Function.identity()));
     }
 
+    /**
+     * For subclasses which look up definitions themselves, and override every accessor
+     */
+    protected GloomDefinitions() {
+        this.definitions = Collections.emptyMap();
+    }
+
     public Collection<ClassDefinition> getDefinitions() {
         return definitions.values();
     }
@@ -39,7 +49,41 @@ public class GloomDefinitions {
         return definitions.get(name);
     }
 
+    /**
+     * @return The internal names of every class with a definition
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(definitions.keySet());
+    }
+
+    /**
+     * @param name The class's internal name
+     * @return Whether the class has a definition, without necessarily loading it
+     */
+    public boolean contains(String name) {
+        return definitions.containsKey(name);
+    }
+
     public GloomDefinitions merge(ClassDefinition definition) {
+        if (!Events.AVAILABLE) {
+            return doMerge(definition);
+        }
+
+        DefinitionsMergeEvent event = new DefinitionsMergeEvent();
+        event.begin();
+        GloomDefinitions merged = doMerge(definition);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.className = definition.getName();
+            event.definitions = merged.definitions.size();
+            event.commit();
+        }
+
+        return merged;
+    }
+
+    private GloomDefinitions doMerge(ClassDefinition definition) {
         Set<ClassDefinition> definitions = new HashSet<>(getDefinitions());
         ClassDefinition existing = get(definition.getName());
 
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.definitions;
+
+import io.github.fukkitmc.gloom.jfr.DefinitionsLoadEvent;
+import io.github.fukkitmc.gloom.jfr.Events;
+import org.objectweb.asm.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link GloomDefinitions Definitions} backed by a memory-mapped index file, which only decodes a
+ * {@link ClassDefinition} when it is first looked up
+ *
+ * <p>The file starts with a table of owners sorted by the bytes of their names, each with the offsets of its name
+ * and of its encoded definition, so lookups and {@link #contains negative checks} are binary searches over the
+ * mapped file. {@link #merge Merging} materializes every definition
+ */
+public class IndexedGloomDefinitions extends GloomDefinitions {
+
+    private static final int MAGIC = 0x474c4446;
+    private static final int VERSION = 2;
+    private static final int HEADER = 12;
+    private static final int ENTRY = 16;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final ConcurrentMap<String, ClassDefinition> cache = new ConcurrentHashMap<>();
+    private volatile Set<String> names;
+
+    private IndexedGloomDefinitions(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Maps an index file written by {@link #write}. The mapping stays valid after this returns
+     *
+     * @param path The index file
+     * @return The definitions
+     */
+    public static IndexedGloomDefinitions open(Path path) throws IOException {
+        if (!Events.AVAILABLE) {
+            return map(path);
+        }
+
+        DefinitionsLoadEvent event = new DefinitionsLoadEvent();
+        event.begin();
+        IndexedGloomDefinitions definitions = map(path);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = "index";
+            event.size = definitions.buffer.capacity();
+            event.definitions = definitions.size;
+            event.commit();
+        }
+
+        return definitions;
+    }
+
+    private static IndexedGloomDefinitions map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Definitions index is too large to be mapped: " + path);
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (length < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a definitions index: " + path);
+            }
+
+            return new IndexedGloomDefinitions(buffer, buffer.getInt(8));
+        }
+    }
+
+    /**
+     * Writes definitions as an index file
+     *
+     * @param definitions The definitions
+     * @param stream      The stream to write to
+     */
+    public static void write(GloomDefinitions definitions, OutputStream stream) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        Map<byte[], byte[]> data = new IdentityHashMap<>();
+
+        for (ClassDefinition definition : definitions.getDefinitions()) {
+            byte[] name = definition.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            data.put(name, encode(definition));
+        }
+
+        names.sort(IndexedGloomDefinitions::compare);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.size());
+
+        int nameOffset = HEADER + ENTRY * names.size();
+        int dataOffset = nameOffset;
+
+        for (byte[] name : names) {
+            dataOffset += name.length;
+        }
+
+        for (byte[] name : names) {
+            byte[] bytes = data.get(name);
+            out.writeInt(nameOffset);
+            out.writeInt(name.length);
+            out.writeInt(dataOffset);
+            out.writeInt(bytes.length);
+            nameOffset += name.length;
+            dataOffset += bytes.length;
+        }
+
+        for (byte[] name : names) {
+            out.write(name);
+        }
+
+        for (byte[] name : names) {
+            out.write(data.get(name));
+        }
+
+        out.flush();
+    }
+
+    @Override
+    public ClassDefinition get(String name) {
+        ClassDefinition definition = cache.get(name);
+
+        if (definition != null) {
+            return definition;
+        }
+
+        int index = find(name);
+
+        if (index < 0) {
+            return null;
+        }
+
+        return cache.computeIfAbsent(name, n -> decode(index));
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return cache.containsKey(name) || find(name) >= 0;
+    }
+
+    @Override
+    public Set<String> getNames() {
+        Set<String> names = this.names;
+
+        if (names == null) {
+            Set<String> set = new LinkedHashSet<>(size * 2);
+
+            for (int i = 0; i < size; i++) {
+                set.add(new String(name(i), StandardCharsets.UTF_8));
+            }
+
+            this.names = names = Collections.unmodifiableSet(set);
+        }
+
+        return names;
+    }
+
+    @Override
+    public Collection<ClassDefinition> getDefinitions() {
+        List<ClassDefinition> definitions = new ArrayList<>(size);
+
+        for (String name : getNames()) {
+            definitions.add(get(name));
+        }
+
+        return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * @return The number of definitions in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    private int find(String name) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = HEADER + ENTRY * middle;
+            int c = compare(buffer, buffer.getInt(entry), buffer.getInt(entry + 4), name);
+
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    private byte[] name(int index) {
+        int entry = HEADER + ENTRY * index;
+        return slice(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    private byte[] slice(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    private ClassDefinition decode(int index) {
+        int entry = HEADER + ENTRY * index;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(slice(buffer.getInt(entry + 8), buffer.getInt(entry + 12))));
+
+        try {
+            String name = in.readUTF();
+            Set<String> injectInterfaces = new HashSet<>();
+            Set<SyntheticField> syntheticFields = new HashSet<>();
+            Set<SyntheticMethod> syntheticMethods = new HashSet<>();
+
+            for (int i = in.readInt(); i > 0; i--) {
+                injectInterfaces.add(in.readUTF());
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                int access = in.readInt();
+                String fieldName = in.readUTF();
+                Type type = Type.getType(in.readUTF());
+                String signature = readNullable(in);
+                Accessor getter = readAccessor(in);
+                Accessor setter = readAccessor(in);
+                Set<AtomicAccessor> atomicAccessors = new HashSet<>();
+
+                for (int j = in.readInt(); j > 0; j--) {
+                    atomicAccessors.add(new AtomicAccessor(AtomicAccessor.Operation.valueOf(in.readUTF()), in.readInt(), in.readUTF()));
+                }
+
+                syntheticFields.add(new SyntheticField(access, fieldName, type, signature, getter, setter, atomicAccessors, readValue(in)));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                int opcode = in.readInt();
+                int access = in.readInt();
+                String methodName = in.readUTF();
+                String descriptor = in.readUTF();
+                String signature = readNullable(in);
+                RedirectTarget redirect = new RedirectTarget(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean());
+                syntheticMethods.add(new SyntheticMethod(opcode, access, methodName, descriptor, signature, redirect));
+            }
+
+            return new ClassDefinition(name, injectInterfaces, syntheticFields, syntheticMethods);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt definitions index entry " + index, e);
+        }
+    }
+
+    private static byte[] encode(ClassDefinition definition) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeUTF(definition.getName());
+        out.writeInt(definition.getInjectInterfaces().size());
+
+        for (String itf : definition.getInjectInterfaces()) {
+            out.writeUTF(itf);
+        }
+
+        out.writeInt(definition.getSyntheticFields().size());
+
+        for (SyntheticField field : definition.getSyntheticFields()) {
+            out.writeInt(field.getAccess());
+            out.writeUTF(field.getName());
+            out.writeUTF(field.getType().getDescriptor());
+            writeNullable(out, field.getSignature());
+            writeAccessor(out, field.getGetter());
+            writeAccessor(out, field.getSetter());
+            out.writeInt(field.getAtomicAccessors().size());
+
+            for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                out.writeUTF(accessor.getOperation().name());
+                out.writeInt(accessor.getAccess());
+                out.writeUTF(accessor.getName());
+            }
+
+            writeValue(out, field.getValue());
+        }
+
+        out.writeInt(definition.getSyntheticMethods().size());
+
+        for (SyntheticMethod method : definition.getSyntheticMethods()) {
+            RedirectTarget redirect = method.getRedirect();
+            out.writeInt(method.getOpcode());
+            out.writeInt(method.getAccess());
+            out.writeUTF(method.getName());
+            out.writeUTF(method.getDescriptor());
+            writeNullable(out, method.getSignature());
+            out.writeUTF(redirect.getOwner());
+            out.writeUTF(redirect.getName());
+            out.writeUTF(redirect.getDescriptor());
+            out.writeBoolean(redirect.isInterface());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeAccessor(DataOutputStream out, Accessor accessor) throws IOException {
+        out.writeBoolean(accessor != null);
+
+        if (accessor != null) {
+            out.writeInt(accessor.getAccess());
+            out.writeUTF(accessor.getType().getDescriptor());
+            out.writeUTF(accessor.getName());
+            writeNullable(out, accessor.getSignature());
+        }
+    }
+
+    private static Accessor readAccessor(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return new Accessor(in.readInt(), Type.getType(in.readUTF()), in.readUTF(), readNullable(in));
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.writeByte(1);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte(2);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Long) {
+            out.writeByte(3);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(4);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(5);
+            out.writeUTF((String) value);
+        } else if (value == null) {
+            out.writeByte(0);
+        } else {
+            throw new IOException("Unsupported synthetic field value " + value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case 0:
+                return null;
+            case 1:
+                return in.readInt();
+            case 2:
+                return in.readFloat();
+            case 3:
+                return in.readLong();
+            case 4:
+                return in.readDouble();
+            case 5:
+                return in.readUTF();
+            default:
+                throw new IOException("Unknown synthetic field value tag");
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+
+        for (int i = 0; i < length; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares a mapped name against the UTF-8 encoding of a key, encoding it on the fly so that lookups and misses
+     * do not allocate
+     */
+    private static int compare(ByteBuffer buffer, int offset, int length, String key) {
+        int position = 0;
+
+        for (int i = 0; i < key.length(); ) {
+            int codePoint = key.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            // String.getBytes replaces unpaired surrogates
+            if (Character.getType(codePoint) == Character.SURROGATE) {
+                codePoint = '?';
+            }
+
+            int count = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+
+            for (int j = 0; j < count; j++) {
+                if (position == length) {
+                    return -1;
+                }
+
+                int shift = 6 * (count - 1 - j);
+                int b = count == 1 ? codePoint : j == 0 ? (0xF00 >> count) & 0xFF | codePoint >> shift : 0x80 | (codePoint >> shift) & 0x3F;
+                int c = (buffer.get(offset + position++) & 0xFF) - b;
+
+                if (c != 0) {
+                    return c;
+                }
+            }
+        }
+
+        return position == length ? 0 : 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IndexedGloomDefinitions that = (IndexedGloomDefinitions) o;
+        return new HashSet<>(getDefinitions()).equals(new HashSet<>(that.getDefinitions()));
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashSet<>(getDefinitions()).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedGloomDefinitions{" +
+                "size=" + size +
+                '}';
+    }
+}
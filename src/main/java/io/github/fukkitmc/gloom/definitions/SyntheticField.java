@@ -16,9 +16,12 @@
 
 package io.github.fukkitmc.gloom.definitions;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.util.Collections;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a synthetic field which can be added to a class
@@ -31,14 +34,66 @@ public class SyntheticField {
     private final String signature;
     private final Accessor getter;
     private final Accessor setter;
+    private final Set<AtomicAccessor> atomicAccessors;
+    private final Object value;
+    // Computed on first use, as the hot path of Illuminate compares against them
+    private transient String descriptor;
+    private transient String getterDescriptor;
+    private transient String setterDescriptor;
+    private transient String compareAndSetDescriptor;
+    private transient String updateDescriptor;
+    private transient Object constantValue;
+    private transient int hash;
+
+    /**
+     * @param value The initial value, as an {@link Integer}, {@link Float}, {@link Long}, {@link Double} or
+     *              {@link String} like a {@code ConstantValue} attribute, or null to zero-initialize the field.
+     *              Other numbers are converted to the field's type, and {@link Boolean booleans} and
+     *              {@link Character characters} to {@link Integer integers}, and the field keeps the converted value
+     * @throws IllegalArgumentException If an atomic accessor's operation is not supported on the field's type, or
+     *                                  the value does not fit it
+     */
+    public SyntheticField(int access, String name, Type type, String signature, Accessor getter, Accessor setter, Set<AtomicAccessor> atomicAccessors, Object value) {
+        // Deserializers create fields without a type and fill them in afterwards
+        if (type != null && atomicAccessors != null) {
+            checkAtomicAccessors(name, type, atomicAccessors);
+        }
+
+        if (type != null && value != null) {
+            value = toConstant(name, type, value);
+            this.constantValue = value;
+        }
 
-    public SyntheticField(int access, String name, Type type, String signature, Accessor getter, Accessor setter) {
         this.access = access;
         this.name = name;
         this.type = type;
         this.signature = signature;
         this.getter = getter;
         this.setter = setter;
+        this.atomicAccessors = atomicAccessors;
+        this.value = value;
+    }
+
+    public SyntheticField(int access, String name, Type type, String signature, Accessor getter, Accessor setter, Set<AtomicAccessor> atomicAccessors) {
+        this(access, name, type, signature, getter, setter, atomicAccessors, null);
+    }
+
+    public SyntheticField(int access, String name, Type type, String signature, Accessor getter, Accessor setter) {
+        this(access, name, type, signature, getter, setter, Collections.emptySet());
+    }
+
+    /**
+     * @param name            The field name
+     * @param type            The field type
+     * @param atomicAccessors The field's atomic accessors
+     * @throws IllegalArgumentException If an accessor's operation is not supported on the type
+     */
+    public static void checkAtomicAccessors(String name, Type type, Set<AtomicAccessor> atomicAccessors) {
+        for (AtomicAccessor accessor : atomicAccessors) {
+            if (!accessor.getOperation().supports(type)) {
+                throw new IllegalArgumentException(accessor.getOperation() + " is not supported on " + name + " of type " + type.getClassName());
+            }
+        }
     }
 
     public int getAccess() {
@@ -57,6 +112,70 @@ public class SyntheticField {
         return signature;
     }
 
+    /**
+     * @return The field's type descriptor
+     */
+    public String getDescriptor() {
+        String descriptor = this.descriptor;
+
+        if (descriptor == null) {
+            this.descriptor = descriptor = type.getDescriptor();
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @return The descriptor of a getter of the field, {@code ()T}
+     */
+    public String getGetterDescriptor() {
+        String descriptor = getterDescriptor;
+
+        if (descriptor == null) {
+            getterDescriptor = descriptor = "()" + getDescriptor();
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @return The descriptor of a setter of the field, {@code (T)V}
+     */
+    public String getSetterDescriptor() {
+        String descriptor = setterDescriptor;
+
+        if (descriptor == null) {
+            setterDescriptor = descriptor = "(" + getDescriptor() + ")V";
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @param operation The operation
+     * @return The descriptor of an atomic accessor of the field, excluding the receiver
+     */
+    public String getAtomicDescriptor(AtomicAccessor.Operation operation) {
+        if (operation == AtomicAccessor.Operation.COMPARE_AND_SET) {
+            String descriptor = compareAndSetDescriptor;
+
+            if (descriptor == null) {
+                compareAndSetDescriptor = descriptor = operation.getDescriptor(type);
+            }
+
+            return descriptor;
+        }
+
+        // Every other operation takes and returns the field type
+        String descriptor = updateDescriptor;
+
+        if (descriptor == null) {
+            updateDescriptor = descriptor = operation.getDescriptor(type);
+        }
+
+        return descriptor;
+    }
+
     public Accessor getGetter() {
         return getter;
     }
@@ -65,6 +184,110 @@ public class SyntheticField {
         return setter;
     }
 
+    public Set<AtomicAccessor> getAtomicAccessors() {
+        return atomicAccessors == null ? Collections.emptySet() : atomicAccessors;
+    }
+
+    /**
+     * @return The initial value, converted to the constant type of the field's type, or null
+     * @throws IllegalArgumentException If the value does not fit the field's type
+     */
+    public Object getValue() {
+        Object constant = constantValue;
+
+        if (constant == null && value != null) {
+            constantValue = constant = toConstant(name, type, value);
+        }
+
+        return constant;
+    }
+
+    /**
+     * @param name  The field name
+     * @param type  The field type
+     * @param value The initial value
+     * @return The value as a constant of the type's constant type
+     * @throws IllegalArgumentException If the value does not fit the type, such as a string for a numeric field
+     */
+    private static Object toConstant(String name, Type type, Object value) {
+        if (value instanceof Boolean) {
+            value = (Boolean) value ? 1 : 0;
+        } else if (value instanceof Character) {
+            value = (int) (Character) value;
+        } else if (value instanceof String && type.getSort() == Type.CHAR && ((String) value).length() == 1) {
+            // How Gson writes characters
+            value = (int) ((String) value).charAt(0);
+        }
+
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                if (value instanceof Number) {
+                    return ((Number) value).intValue();
+                }
+
+                break;
+            case Type.FLOAT:
+                if (value instanceof Number) {
+                    return ((Number) value).floatValue();
+                }
+
+                break;
+            case Type.LONG:
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+
+                break;
+            case Type.DOUBLE:
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+
+                break;
+            default:
+                if (value instanceof String && type.getDescriptor().equals("Ljava/lang/String;")) {
+                    return value;
+                }
+        }
+
+        throw new IllegalArgumentException("Value " + value + " does not fit " + name + " of type " + type.getClassName());
+    }
+
+    /**
+     * @return Whether the field is a {@code static final} constant, whose reads can be folded
+     */
+    public boolean isConstant() {
+        return value != null && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL)) == (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL);
+    }
+
+    /**
+     * @return Whether the field has atomic accessors, and so must be volatile
+     */
+    public boolean isAtomic() {
+        return !getAtomicAccessors().isEmpty();
+    }
+
+    /**
+     * @return The field's access, including {@link org.objectweb.asm.Opcodes#ACC_VOLATILE} for atomic fields
+     */
+    public int getFieldAccess() {
+        return isAtomic() ? access | Opcodes.ACC_VOLATILE : access;
+    }
+
+    public AtomicAccessor findAtomicAccessor(String name, String descriptor) {
+        for (AtomicAccessor accessor : getAtomicAccessors()) {
+            if (accessor.getName().equals(name) && getAtomicDescriptor(accessor.getOperation()).equals(descriptor)) {
+                return accessor;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -75,12 +298,21 @@ public class SyntheticField {
                 Objects.equals(type, that.type) &&
                 Objects.equals(signature, that.signature) &&
                 Objects.equals(getter, that.getter) &&
-                Objects.equals(setter, that.setter);
+                Objects.equals(setter, that.setter) &&
+                Objects.equals(getAtomicAccessors(), that.getAtomicAccessors()) &&
+                Objects.equals(getValue(), that.getValue());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(access, name, type, signature, getter, setter);
+        // Fields key the accessor maps of emitters, which are looked up for every rewrite
+        int hash = this.hash;
+
+        if (hash == 0) {
+            this.hash = hash = Objects.hash(access, name, type, signature, getter, setter, getAtomicAccessors(), getValue());
+        }
+
+        return hash;
     }
 
     @Override
@@ -92,6 +324,8 @@ public class SyntheticField {
                 ", signature='" + signature + '\'' +
                 ", getter=" + getter +
                 ", setter=" + setter +
+                ", atomicAccessors=" + getAtomicAccessors() +
+                ", value=" + value +
                 '}';
     }
 }
@@ -16,16 +16,22 @@
 
 package io.github.fukkitmc.gloom.emitter;
 
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
 import io.github.fukkitmc.gloom.definitions.SyntheticField;
 
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Function;
 
+/**
+ * Names accessors after their field and a hash of the target class, so that every emitter for the same target names
+ * them the same way, whichever order they are generated in and in whichever process. Classes illuminated in one run
+ * stay valid against emitters created in another
+ */
 public abstract class AbstractEmitter implements Emitter {
 
-    private static final char[] RANDOM_CHARACTERS = {
+    private static final char[] CHARACTERS = {
             '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
             'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J',
             'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T',
@@ -38,54 +44,78 @@ public abstract class AbstractEmitter implements Emitter {
     protected final Map<SyntheticField, String> holderSets = new HashMap<>();
     protected final Map<SyntheticField, String> interfaceGets = new HashMap<>();
     protected final Map<SyntheticField, String> interfaceSets = new HashMap<>();
-
-    private final Random random = new Random("The loom is gloomier".hashCode());
-
-    private final Function<SyntheticField, String> computeHG = random(holderGets, "getStatic");
-    private final Function<SyntheticField, String> computeHS = random(holderSets, "setStatic");
-    private final Function<SyntheticField, String> computeIG = random(interfaceGets, "getSynthetic");
-    private final Function<SyntheticField, String> computeIS = random(interfaceSets, "setSynthetic");
+    protected final Map<AtomicAccessor.Operation, Map<SyntheticField, String>> holderAtomics = new EnumMap<>(AtomicAccessor.Operation.class);
+    protected final Map<AtomicAccessor.Operation, Map<SyntheticField, String>> interfaceAtomics = new EnumMap<>(AtomicAccessor.Operation.class);
+
+    private final String suffix;
+
+    private final Function<SyntheticField, String> computeHG = name("getStatic");
+    private final Function<SyntheticField, String> computeHS = name("setStatic");
+    private final Function<SyntheticField, String> computeIG = name("getSynthetic");
+    private final Function<SyntheticField, String> computeIS = name("setSynthetic");
+
+    /**
+     * @param target The target class, whose name keeps accessors apart from those of its super classes and of other
+     *               targets sharing a holder
+     */
+    protected AbstractEmitter(String target) {
+        this.suffix = hash(target);
+    }
 
     @Override
-    public String generateHolderSyntheticSetAccessor(SyntheticField field) {
+    public synchronized String generateHolderSyntheticSetAccessor(SyntheticField field) {
         return holderSets.computeIfAbsent(field, computeHS);
     }
 
     @Override
-    public String generateHolderSyntheticGetAccessor(SyntheticField field) {
+    public synchronized String generateHolderSyntheticGetAccessor(SyntheticField field) {
         return holderGets.computeIfAbsent(field, computeHG);
     }
 
     @Override
-    public String generateInterfaceSyntheticSetAccessor(SyntheticField field) {
+    public synchronized String generateInterfaceSyntheticSetAccessor(SyntheticField field) {
         return interfaceSets.computeIfAbsent(field, computeIS);
     }
 
     @Override
-    public String generateInterfaceSyntheticGetAccessor(SyntheticField field) {
+    public synchronized String generateInterfaceSyntheticGetAccessor(SyntheticField field) {
         return interfaceGets.computeIfAbsent(field, computeIG);
     }
 
-    private <T> Function<T, String> random(Map<T, String> map, String prefix) {
-        return t -> {
-            while (true) {
-                String s = prefix + getRandomString();
+    @Override
+    public synchronized String generateHolderSyntheticAtomicAccessor(SyntheticField field, AtomicAccessor.Operation operation) {
+        return holderAtomics.computeIfAbsent(operation, o -> new HashMap<>()).computeIfAbsent(field, name(operation.getMethod() + "Static"));
+    }
 
-                if (!map.containsValue(s)) {
-                    return s;
-                }
-            }
-        };
+    @Override
+    public synchronized String generateInterfaceSyntheticAtomicAccessor(SyntheticField field, AtomicAccessor.Operation operation) {
+        return interfaceAtomics.computeIfAbsent(operation, o -> new HashMap<>()).computeIfAbsent(field, name(operation.getMethod() + "Synthetic"));
     }
 
-    private String getRandomString() {
+    /**
+     * Field names are unique within a target up to their type, which the accessor descriptors already tell apart
+     */
+    private Function<SyntheticField, String> name(String prefix) {
+        return field -> prefix + "$" + field.getName() + "$" + suffix;
+    }
+
+    /**
+     * @return Six characters of a 64 bit FNV-1a hash, wider than {@link String#hashCode} so targets rarely share one
+     */
+    private static String hash(String target) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < target.length(); i++) {
+            hash = (hash ^ target.charAt(i)) * 0x100000001b3L;
+        }
+
         StringBuilder builder = new StringBuilder();
 
         for (int i = 0; i < 6; i++) {
-            builder.append(RANDOM_CHARACTERS[random.nextInt(RANDOM_CHARACTERS.length)]);
+            builder.append(CHARACTERS[(int) Long.remainderUnsigned(hash, CHARACTERS.length)]);
+            hash = Long.divideUnsigned(hash, CHARACTERS.length);
         }
 
         return builder.toString();
     }
-
 }
@@ -16,6 +16,7 @@
 
 package io.github.fukkitmc.gloom.emitter;
 
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
 import io.github.fukkitmc.gloom.definitions.SyntheticField;
 
 /**
@@ -30,10 +31,35 @@ public interface Emitter {
     String getHolder();
 
     /**
-     * @return The interface's internal name
+     * @param field A static synthetic field
+     * @return The internal name of the holder class for the field
+     */
+    default String getHolder(SyntheticField field) {
+        return getHolder();
+    }
+
+    /**
+     * @return The interface's internal name, or null if the emitter {@link #storesInstanceFields() stores instance
+     * fields} and so has no interface
      */
     String getInterface();
 
+    /**
+     * @return Whether the interface's accessors end up as methods of the target class itself,
+     * so they can be invoked virtually on it
+     */
+    default boolean mergesInterface() {
+        return false;
+    }
+
+    /**
+     * @return Whether instance synthetic fields are stored outside the target, so their interface accessors are
+     * instead static methods of the {@link #getHolder(SyntheticField) holder} taking the receiver first
+     */
+    default boolean storesInstanceFields() {
+        return false;
+    }
+
     /**
      * @param field Field
      * @return Holder setter method name
@@ -46,6 +72,15 @@ public interface Emitter {
      */
     String generateHolderSyntheticGetAccessor(SyntheticField field);
 
+    /**
+     * @param field Field
+     * @return The name of a public static field on the holder which can be accessed directly,
+     * or null if the field can only be accessed through the holder's accessors
+     */
+    default String generateHolderSyntheticField(SyntheticField field) {
+        return null;
+    }
+
     /**
      * @param field Field
      * @return Holder setter method name
@@ -57,4 +92,18 @@ public interface Emitter {
      * @return Holder getter method name
      */
     String generateInterfaceSyntheticGetAccessor(SyntheticField field);
+
+    /**
+     * @param field     Field
+     * @param operation The atomic operation
+     * @return Holder atomic accessor method name
+     */
+    String generateHolderSyntheticAtomicAccessor(SyntheticField field, AtomicAccessor.Operation operation);
+
+    /**
+     * @param field     Field
+     * @param operation The atomic operation
+     * @return Interface atomic accessor method name
+     */
+    String generateInterfaceSyntheticAtomicAccessor(SyntheticField field, AtomicAccessor.Operation operation);
 }
@@ -21,7 +21,8 @@ import java.util.Map;
 import java.util.function.Function;
 
 /**
- * Holds a map of {@link Emitter emitters}
+ * Holds a map of {@link Emitter emitters}. Emitters are created under a lock, so the provider can be
+ * shared by transforms running in parallel
  *
  * @param <E> The emitter type
  */
@@ -34,7 +35,7 @@ public class EmitterProvider<E extends Emitter> {
         this.provider = provider;
     }
 
-    public E forClass(String name) {
+    public synchronized E forClass(String name) {
         // Don't use computeIfAbsent, causes a ConcurrentModificationException
         E emitter = emitters.get(name);
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.emitter;
+
+import io.github.fukkitmc.gloom.asm.ReferenceIndex;
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import org.objectweb.asm.Type;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spreads static synthetic fields across several small holder classes. Each holder is only loaded and initialized
+ * when one of its members is first accessed, following the initialization-on-demand holder idiom, so fields which
+ * are never touched cost nothing at startup
+ */
+@FunctionalInterface
+public interface HolderSharding {
+
+    /**
+     * @param target The target class's internal name
+     * @param field  A static synthetic field of the target
+     * @return The field's group, or null to keep it in the main holder. Must always be the same for a field
+     */
+    String getGroup(String target, SyntheticField field);
+
+    /**
+     * @return A sharding keeping every field in the main holder
+     */
+    static HolderSharding none() {
+        return (target, field) -> null;
+    }
+
+    /**
+     * @return A sharding giving each field its own holder
+     */
+    static HolderSharding perField() {
+        return (target, field) -> field.getName();
+    }
+
+    /**
+     * @param groups The groups of fields, keyed by {@code target.field}. Fields without a group stay in the main holder
+     * @return A sharding with explicit groups
+     */
+    static HolderSharding grouped(Map<String, String> groups) {
+        return (target, field) -> groups.get(target + "." + field.getName());
+    }
+
+    /**
+     * Groups fields by the package of the classes accessing them, as recorded in an index from an earlier
+     * illumination. Fields accessed from several packages, or not at all, stay in the main holder
+     *
+     * @param index The index
+     * @return A sharding by accessing package
+     */
+    static HolderSharding byAccessingPackage(ReferenceIndex index) {
+        return (target, field) -> {
+            Set<String> classes = new HashSet<>(index.getReferencingClasses(target, field.getName(), field.getType().getDescriptor()));
+
+            if (field.getGetter() != null) {
+                classes.addAll(index.getReferencingClasses(target, field.getGetter().getName(), Type.getMethodDescriptor(field.getGetter().getType())));
+            }
+
+            if (field.getSetter() != null) {
+                classes.addAll(index.getReferencingClasses(target, field.getSetter().getName(), Type.getMethodDescriptor(Type.VOID_TYPE, field.getSetter().getType())));
+            }
+
+            for (AtomicAccessor accessor : field.getAtomicAccessors()) {
+                classes.addAll(index.getReferencingClasses(target, accessor.getName(), accessor.getDescriptor(field.getType())));
+            }
+
+            String group = null;
+
+            for (String name : classes) {
+                int slash = name.lastIndexOf('/');
+                String pkg = slash < 0 ? "" : name.substring(0, slash);
+
+                if (group == null) {
+                    group = pkg;
+                } else if (!group.equals(pkg)) {
+                    return null;
+                }
+            }
+
+            return group == null || group.isEmpty() ? null : group;
+        };
+    }
+
+    /**
+     * @param group A group
+     * @return The group as part of a class name
+     */
+    static String toIdentifier(String group) {
+        StringBuilder builder = new StringBuilder(group.length());
+
+        for (int i = 0; i < group.length(); i++) {
+            char c = group.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.emitter;
+
+import io.github.fukkitmc.gloom.asm.RewriteTable;
+import io.github.fukkitmc.gloom.definitions.ClassDefinition;
+import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
+import io.github.fukkitmc.gloom.definitions.RedirectTarget;
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import io.github.fukkitmc.gloom.definitions.SyntheticMethod;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Describes where every synthetic member ended up, for {@link io.github.fukkitmc.gloom.runtime.SyntheticMembers} to
+ * bind handles to at runtime
+ *
+ * <p>Keys are {@code get:target.field}, {@code set:target.field} and {@code invoke:target.name(descriptor)}, and
+ * values are a kind, owner, name and descriptor separated by spaces, or {@code constant}, the field descriptor and
+ * the value. Creating the table generates accessor names in the emitters, so create it before emitting. Atomic
+ * accessors, setters of final fields and redirects invoked with
+ * {@code INVOKESPECIAL} are left out
+ */
+public class SyntheticMemberTable {
+
+    private final Map<String, String> entries = new TreeMap<>();
+
+    private SyntheticMemberTable() {
+    }
+
+    /**
+     * @param definitions The definitions
+     * @param provider    The emitter provider the definitions are illuminated with, or null if the synthetic members
+     *                    are injected into their targets
+     * @return The table
+     */
+    public static SyntheticMemberTable create(GloomDefinitions definitions, EmitterProvider<?> provider) {
+        SyntheticMemberTable table = new SyntheticMemberTable();
+
+        for (ClassDefinition definition : definitions.getDefinitions()) {
+            String target = definition.getName();
+            Emitter emitter = provider == null || definition.getSyntheticFields().isEmpty() ? null : provider.forClass(target);
+
+            for (SyntheticField field : definition.getSyntheticFields()) {
+                table.add(target, field, emitter);
+            }
+
+            for (SyntheticMethod method : definition.getSyntheticMethods()) {
+                RedirectTarget redirect = method.getRedirect();
+                String kind;
+
+                switch (method.getOpcode()) {
+                    case Opcodes.INVOKESTATIC:
+                        kind = "static";
+                        break;
+                    case Opcodes.INVOKEVIRTUAL:
+                    case Opcodes.INVOKEINTERFACE:
+                        kind = "virtual";
+                        break;
+                    default:
+                        continue;
+                }
+
+                table.entries.put("invoke:" + target + "." + method.getName() + method.getDescriptor(), join(kind, redirect.getOwner(), redirect.getName(), redirect.getDescriptor()));
+            }
+        }
+
+        return table;
+    }
+
+    private void add(String target, SyntheticField field, Emitter emitter) {
+        String key = target + "." + field.getName();
+        String descriptor = field.getType().getDescriptor();
+
+        if (field.isConstant()) {
+            entries.put("get:" + key, join("constant", descriptor, String.valueOf(field.getValue())));
+            return;
+        }
+
+        boolean isStatic = (field.getAccess() & Opcodes.ACC_STATIC) != 0;
+        boolean isFinal = (field.getAccess() & Opcodes.ACC_FINAL) != 0;
+        String get, set;
+
+        if (emitter == null) {
+            get = join(isStatic ? "getstatic" : "getfield", target, field.getName(), descriptor);
+            set = isFinal ? null : join(isStatic ? "putstatic" : "putfield", target, field.getName(), descriptor);
+        } else if (isStatic) {
+            String holder = emitter.getHolder(field);
+            String holderField = emitter.generateHolderSyntheticField(field);
+
+            if (holderField != null) {
+                get = join("getstatic", holder, holderField, descriptor);
+                set = isFinal ? null : join("putstatic", holder, holderField, descriptor);
+            } else {
+                get = join("static", holder, emitter.generateHolderSyntheticGetAccessor(field), field.getGetterDescriptor());
+                set = isFinal ? null : join("static", holder, emitter.generateHolderSyntheticSetAccessor(field), field.getSetterDescriptor());
+            }
+        } else if (emitter.storesInstanceFields()) {
+            String holder = emitter.getHolder(field);
+            get = join("static", holder, emitter.generateInterfaceSyntheticGetAccessor(field), RewriteTable.withReceiver(target, field.getGetterDescriptor()));
+            set = isFinal ? null : join("static", holder, emitter.generateInterfaceSyntheticSetAccessor(field), RewriteTable.withReceiver(target, field.getSetterDescriptor()));
+        } else {
+            get = join("virtual", emitter.getInterface(), emitter.generateInterfaceSyntheticGetAccessor(field), field.getGetterDescriptor());
+            set = isFinal ? null : join("virtual", emitter.getInterface(), emitter.generateInterfaceSyntheticSetAccessor(field), field.getSetterDescriptor());
+        }
+
+        entries.put("get:" + key, get);
+
+        if (set != null) {
+            entries.put("set:" + key, set);
+        }
+    }
+
+    private static String join(String... parts) {
+        return String.join(" ", parts);
+    }
+
+    /**
+     * @return The entries, by key
+     */
+    public Map<String, String> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Writes the table as properties, which {@link io.github.fukkitmc.gloom.runtime.SyntheticMembers#load} reads
+     *
+     * @param stream The stream to write to
+     */
+    public void write(OutputStream stream) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        properties.store(stream, "Gloom synthetic members");
+    }
+}
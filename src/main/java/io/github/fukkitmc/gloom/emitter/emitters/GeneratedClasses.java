@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.emitter.emitters;
+
+import io.github.fukkitmc.gloom.emitter.Emitter;
+import io.github.fukkitmc.gloom.emitter.EmitterProvider;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The classes emitted by the {@link MixinEmitter mixin} and {@link SideTableEmitter side table} emitters of a
+ * provider, kept in memory
+ *
+ * <p>Interfaces and holders are regular classes, and can be {@link #define(MethodHandles.Lookup) defined} through a
+ * lookup, or through a {@link #createClassLoader(ClassLoader) class loader} serving them. Mixins are never defined,
+ * and are handed to the Mixin service by {@link #getClassBytes(String) name} or as resources. Hidden classes are not
+ * used, as the emitted classes are referenced by name from transformed classes
+ */
+public class GeneratedClasses {
+
+    private final Map<String, byte[]> interfaces = new TreeMap<>();
+    private final Map<String, byte[]> holders = new TreeMap<>();
+    private final Map<String, byte[]> mixins = new TreeMap<>();
+
+    /**
+     * Emits every class of the provider's emitters. Call once every class has been illuminated
+     *
+     * @param provider The emitter provider
+     * @return The emitted classes
+     * @throws IllegalArgumentException If the provider has an emitter of another kind
+     */
+    public static GeneratedClasses emit(EmitterProvider<?> provider) {
+        GeneratedClasses classes = new GeneratedClasses();
+        List<Emitter> emitters;
+
+        synchronized (provider) {
+            emitters = new ArrayList<>(provider.getEmitters().values());
+        }
+
+        for (Emitter emitter : emitters) {
+            // Illuminating may still generate members, so each emitter's classes are emitted from one snapshot
+            synchronized (emitter) {
+                if (emitter instanceof MixinEmitter) {
+                    classes.emitMixin((MixinEmitter) emitter);
+                } else if (emitter instanceof SideTableEmitter) {
+                    classes.emitSideTable((SideTableEmitter) emitter);
+                } else {
+                    throw new IllegalArgumentException("Cannot emit the classes of " + emitter.getClass().getName());
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    private void emitMixin(MixinEmitter emitter) {
+        emitter.deferEvents();
+
+        if (emitter.shouldEmitInterface()) {
+            interfaces.put(emitter.getInterface(), write(emitter, emitter::emitInterface));
+        }
+
+        for (String holder : emitter.getHolders()) {
+            holders.put(holder, write(emitter, visitor -> emitter.emitHolder(holder, visitor)));
+        }
+
+        if (emitter.shouldEmitMixin()) {
+            mixins.put(emitter.getMixin(), write(emitter, emitter::emitMixin));
+        }
+    }
+
+    private static byte[] write(MixinEmitter emitter, Consumer<ClassVisitor> emit) {
+        byte[] bytes = write(emit);
+        emitter.commitEvent(bytes.length);
+        return bytes;
+    }
+
+    private void emitSideTable(SideTableEmitter emitter) {
+        if (emitter.shouldEmitHolder()) {
+            holders.put(emitter.getHolder(), write(emitter::emitHolder));
+        }
+    }
+
+    private static byte[] write(Consumer<ClassVisitor> emit) {
+        // Emitted code declares its own maximums and has no branches, so no frames are needed
+        ClassWriter writer = new ClassWriter(0);
+        emit.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return The interfaces, by internal name
+     */
+    public Map<String, byte[]> getInterfaces() {
+        return Collections.unmodifiableMap(interfaces);
+    }
+
+    /**
+     * @return The holders, by internal name
+     */
+    public Map<String, byte[]> getHolders() {
+        return Collections.unmodifiableMap(holders);
+    }
+
+    /**
+     * @return The mixins, by internal name
+     */
+    public Map<String, byte[]> getMixins() {
+        return Collections.unmodifiableMap(mixins);
+    }
+
+    /**
+     * @param name The internal or binary name of a class
+     * @return The class's bytes, or null if it was not emitted
+     */
+    public byte[] getClassBytes(String name) {
+        String internal = name.replace('.', '/');
+        byte[] bytes = interfaces.get(internal);
+
+        if (bytes == null) {
+            bytes = holders.get(internal);
+        }
+
+        if (bytes == null) {
+            bytes = mixins.get(internal);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @param lookup A lookup with package access
+     * @return Whether every interface and holder is in the lookup class's package, and so can be defined with it
+     */
+    public boolean canDefine(MethodHandles.Lookup lookup) {
+        if ((lookup.lookupModes() & MethodHandles.Lookup.PACKAGE) == 0) {
+            return false;
+        }
+
+        String pkg = lookup.lookupClass().getPackageName().replace('.', '/');
+
+        for (String name : getDefinableNames()) {
+            int slash = name.lastIndexOf('/');
+
+            if (!pkg.equals(slash == -1 ? "" : name.substring(0, slash))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Defines every interface and holder in the lookup class's loader and package
+     *
+     * @param lookup A lookup with package access, on a class in the emitted classes' package
+     * @return The defined classes, by internal name
+     * @throws IllegalAccessException If the lookup does not have package access
+     * @see #canDefine(MethodHandles.Lookup)
+     */
+    public Map<String, Class<?>> define(MethodHandles.Lookup lookup) throws IllegalAccessException {
+        Map<String, Class<?>> classes = new LinkedHashMap<>();
+
+        // Holders never reference interfaces, but interfaces go first so targets can resolve them early
+        for (Map.Entry<String, byte[]> entry : interfaces.entrySet()) {
+            classes.put(entry.getKey(), lookup.defineClass(entry.getValue()));
+        }
+
+        for (Map.Entry<String, byte[]> entry : holders.entrySet()) {
+            classes.put(entry.getKey(), lookup.defineClass(entry.getValue()));
+        }
+
+        return classes;
+    }
+
+    /**
+     * Creates a loader defining the interfaces and holders on demand, for when no lookup in their package is available.
+     * Only classes loaded through the loader can see them
+     *
+     * @param parent The parent loader
+     * @return The class loader
+     */
+    public ClassLoader createClassLoader(ClassLoader parent) {
+        return new GeneratedClassLoader(parent, this);
+    }
+
+    Set<String> getDefinableNames() {
+        Set<String> names = new TreeSet<>(interfaces.keySet());
+        names.addAll(holders.keySet());
+        return names;
+    }
+
+    byte[] getDefinableBytes(String internal) {
+        byte[] bytes = interfaces.get(internal);
+        return bytes == null ? holders.get(internal) : bytes;
+    }
+}
@@ -16,12 +16,23 @@
 
 package io.github.fukkitmc.gloom.emitter.emitters;
 
+import io.github.fukkitmc.gloom.asm.Counters;
+import io.github.fukkitmc.gloom.asm.RewriteTable;
+import io.github.fukkitmc.gloom.asm.VarHandles;
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
 import io.github.fukkitmc.gloom.definitions.SyntheticField;
 import io.github.fukkitmc.gloom.emitter.AbstractEmitter;
+import io.github.fukkitmc.gloom.emitter.HolderSharding;
+import io.github.fukkitmc.gloom.jfr.EmitEvent;
+import io.github.fukkitmc.gloom.jfr.Events;
 import org.objectweb.asm.*;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class MixinEmitter extends AbstractEmitter {
 
@@ -29,12 +40,45 @@ public class MixinEmitter extends AbstractEmitter {
     private final String itf;
     private final String holder;
     private final String mixin;
-
-    public MixinEmitter(String name, String itf, String holder, String mixin) {
+    private final boolean publicHolder;
+    private final boolean profile;
+    private final HolderSharding sharding;
+    private final Set<SyntheticField> holderFields = new HashSet<>();
+    private final Map<SyntheticField, String> shards = new ConcurrentHashMap<>();
+    private final Function<SyntheticField, String> computeShard = this::computeShard;
+    private boolean deferEvents;
+    private EmitEvent pending;
+
+    /**
+     * @param name         The target class
+     * @param itf          The interface to emit
+     * @param holder       The holder to emit
+     * @param mixin        The mixin to emit
+     * @param publicHolder Whether the holder's fields are public, so they can be accessed directly
+     * @param profile      Whether the accessors bump {@link Counters access counters}
+     * @param sharding     How static synthetic fields are spread across holders
+     */
+    public MixinEmitter(String name, String itf, String holder, String mixin, boolean publicHolder, boolean profile, HolderSharding sharding) {
+        super(name);
         this.name = name;
         this.itf = itf;
         this.holder = holder;
         this.mixin = mixin;
+        this.publicHolder = publicHolder;
+        this.profile = profile;
+        this.sharding = sharding;
+    }
+
+    public MixinEmitter(String name, String itf, String holder, String mixin, boolean publicHolder, boolean profile) {
+        this(name, itf, holder, mixin, publicHolder, profile, HolderSharding.none());
+    }
+
+    public MixinEmitter(String name, String itf, String holder, String mixin, boolean publicHolder) {
+        this(name, itf, holder, mixin, publicHolder, false);
+    }
+
+    public MixinEmitter(String name, String itf, String holder, String mixin) {
+        this(name, itf, holder, mixin, false);
     }
 
     @Override
@@ -42,28 +86,98 @@ public class MixinEmitter extends AbstractEmitter {
         return holder;
     }
 
+    /**
+     * @param field Field
+     * @return The holder the field is sharded into, named after the main holder and the field's group
+     */
+    @Override
+    public String getHolder(SyntheticField field) {
+        return shards.computeIfAbsent(field, computeShard);
+    }
+
+    private String computeShard(SyntheticField field) {
+        String group = sharding.getGroup(name, field);
+        return group == null ? holder : holder + "$" + HolderSharding.toIdentifier(group);
+    }
+
+    /**
+     * @return The internal names of every holder which has something to emit
+     */
+    public synchronized Set<String> getHolders() {
+        Set<String> holders = new TreeSet<>();
+
+        for (SyntheticField field : holderFields) {
+            holders.add(getHolder(field));
+        }
+
+        for (SyntheticField field : holderGets.keySet()) {
+            holders.add(getHolder(field));
+        }
+
+        for (SyntheticField field : holderSets.keySet()) {
+            holders.add(getHolder(field));
+        }
+
+        for (Map<SyntheticField, String> names : holderAtomics.values()) {
+            for (SyntheticField field : names.keySet()) {
+                holders.add(getHolder(field));
+            }
+        }
+
+        return holders;
+    }
+
     @Override
     public String getInterface() {
         return itf;
     }
 
+    @Override
+    public synchronized String generateHolderSyntheticField(SyntheticField field) {
+        if (!publicHolder) {
+            return null;
+        }
+
+        holderFields.add(field);
+        return field.getName();
+    }
+
+    @Override
+    public boolean mergesInterface() {
+        return true;
+    }
+
     public String getMixin() {
         return mixin;
     }
 
-    public boolean shouldEmitMixin() {
-        return interfaceGets.size() + interfaceSets.size() > 0;
+    public synchronized boolean shouldEmitMixin() {
+        return interfaceGets.size() + interfaceSets.size() + count(interfaceAtomics) > 0;
     }
 
-    public boolean shouldEmitInterface() {
-        return interfaceGets.size() + interfaceSets.size() > 0;
+    public synchronized boolean shouldEmitInterface() {
+        return interfaceGets.size() + interfaceSets.size() + count(interfaceAtomics) > 0;
     }
 
+    /**
+     * @return Whether the main holder has something to emit. When sharding, use {@link #getHolders()}
+     */
     public boolean shouldEmitHolder() {
-        return holderGets.size() + holderSets.size() > 0;
+        return getHolders().contains(holder);
     }
 
-    public void emitMixin(ClassVisitor visitor) {
+    private static int count(Map<AtomicAccessor.Operation, Map<SyntheticField, String>> atomics) {
+        int count = 0;
+
+        for (Map<SyntheticField, String> names : atomics.values()) {
+            count += names.size();
+        }
+
+        return count;
+    }
+
+    public synchronized void emitMixin(ClassVisitor visitor) {
+        EmitEvent event = begin();
         visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, mixin, null, "java/lang/Object", new String[]{itf});
 
         {
@@ -75,52 +189,77 @@ public class MixinEmitter extends AbstractEmitter {
             annotation.visitEnd();
         }
 
-        {
-            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
-            method.visitCode();
-            method.visitVarInsn(Opcodes.ALOAD, 0);
-            method.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-            method.visitInsn(Opcodes.RETURN);
-            method.visitMaxs(1, 1);
-            method.visitEnd();
-        }
-
         Set<SyntheticField> fields = new HashSet<>();
+        Counters counters = profile ? new Counters(mixin) : null;
 
         interfaceGets.forEach((field, name) -> {
             fields.add(field);
 
-            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC, name, "()" + field.getType().getDescriptor(), null, null);
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC, name, "()" + field.getType().getDescriptor(), null, null), field, "get");
             method.visitCode();
             method.visitVarInsn(Opcodes.ALOAD, 0);
             method.visitFieldInsn(Opcodes.GETFIELD, mixin, field.getName(), field.getType().getDescriptor());
             method.visitInsn(field.getType().getOpcode(Opcodes.IRETURN));
-            method.visitMaxs(1, 1);
+            method.visitMaxs(field.getType().getSize(), 1);
             method.visitEnd();
         });
 
         interfaceSets.forEach((field, name) -> {
             fields.add(field);
 
-            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC, name, "(" + field.getType().getDescriptor() + ")V", null, null);
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC, name, "(" + field.getType().getDescriptor() + ")V", null, null), field, "set");
             method.visitCode();
             method.visitVarInsn(Opcodes.ALOAD, 0);
             method.visitVarInsn(field.getType().getOpcode(Opcodes.ILOAD), 1);
             method.visitFieldInsn(Opcodes.PUTFIELD, mixin, field.getName(), field.getType().getDescriptor());
             method.visitInsn(Opcodes.RETURN);
-            method.visitMaxs(2, 2);
+            method.visitMaxs(1 + field.getType().getSize(), 1 + field.getType().getSize());
             method.visitEnd();
         });
 
+        Set<SyntheticField> atomics = new HashSet<>();
+        String receiver = Type.getObjectType(name).getDescriptor();
+
+        interfaceAtomics.forEach((operation, names) -> names.forEach((field, name) -> {
+            fields.add(field);
+            atomics.add(field);
+
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC, name, operation.getDescriptor(field.getType()), null, null), field, operation.getMethod());
+            VarHandles.accessor(method, mixin, field, operation, receiver);
+        }));
+
         fields.forEach(f -> {
-            FieldVisitor field = visitor.visitField(Opcodes.ACC_PRIVATE, f.getName(), f.getType().getDescriptor(), null, null);
+            FieldVisitor field = visitor.visitField(Opcodes.ACC_PRIVATE | (f.getFieldAccess() & Opcodes.ACC_VOLATILE), f.getName(), f.getType().getDescriptor(), null, null);
             field.visitEnd();
         });
 
+        {
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            method.visitCode();
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+
+            // Mixin merges the field initializers into every constructor of the target
+            for (SyntheticField field : fields) {
+                if (field.getValue() != null) {
+                    method.visitVarInsn(Opcodes.ALOAD, 0);
+                    RewriteTable.push(method, field.getValue());
+                    method.visitFieldInsn(Opcodes.PUTFIELD, mixin, field.getName(), field.getType().getDescriptor());
+                }
+            }
+
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(3, 1);
+            method.visitEnd();
+        }
+
+        emitInitializer(visitor, name, mixin, atomics, counters);
         visitor.visitEnd();
+        commit(event, "mixin", mixin, interfaceGets.size() + interfaceSets.size() + count(interfaceAtomics));
     }
 
-    public void emitInterface(ClassVisitor visitor) {
+    public synchronized void emitInterface(ClassVisitor visitor) {
+        EmitEvent event = begin();
         visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, itf, null, "java/lang/Object", null);
 
         interfaceGets.forEach((field, name) -> {
@@ -133,11 +272,28 @@ public class MixinEmitter extends AbstractEmitter {
             method.visitEnd();
         });
 
+        interfaceAtomics.forEach((operation, names) -> names.forEach((field, name) -> {
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, operation.getDescriptor(field.getType()), null, null);
+            method.visitEnd();
+        }));
+
         visitor.visitEnd();
+        commit(event, "interface", itf, interfaceGets.size() + interfaceSets.size() + count(interfaceAtomics));
     }
 
-    public void emitHolder(ClassVisitor visitor) {
-        visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, holder, null, "java/lang/Object", null);
+    public synchronized void emitHolder(ClassVisitor visitor) {
+        emitHolder(holder, visitor);
+    }
+
+    /**
+     * Emits one of the {@link #getHolders() holders}, with the static synthetic fields sharded into it
+     *
+     * @param shard   The holder's internal name
+     * @param visitor The class visitor
+     */
+    public synchronized void emitHolder(String shard, ClassVisitor visitor) {
+        EmitEvent event = begin();
+        visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, shard, null, "java/lang/Object", null);
 
         {
             MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "()V", null, null);
@@ -150,35 +306,156 @@ public class MixinEmitter extends AbstractEmitter {
         }
 
         Set<SyntheticField> fields = new HashSet<>();
+        Counters counters = profile ? new Counters(shard) : null;
+        int[] accessors = {0};
+
+        for (SyntheticField field : holderFields) {
+            if (getHolder(field).equals(shard)) {
+                fields.add(field);
+            }
+        }
 
         holderGets.forEach((field, name) -> {
+            if (!getHolder(field).equals(shard)) {
+                return;
+            }
+
             fields.add(field);
+            accessors[0]++;
 
-            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "()" + field.getType().getDescriptor(), null, null);
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "()" + field.getType().getDescriptor(), null, null), field, "get");
             method.visitCode();
-            method.visitFieldInsn(Opcodes.GETSTATIC, holder, field.getName(), field.getType().getDescriptor());
+            method.visitFieldInsn(Opcodes.GETSTATIC, shard, field.getName(), field.getType().getDescriptor());
             method.visitInsn(field.getType().getOpcode(Opcodes.IRETURN));
-            method.visitMaxs(1, 0);
+            method.visitMaxs(field.getType().getSize(), 0);
             method.visitEnd();
         });
 
         holderSets.forEach((field, name) -> {
+            if (!getHolder(field).equals(shard)) {
+                return;
+            }
+
             fields.add(field);
+            accessors[0]++;
 
-            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(" + field.getType().getDescriptor() + ")V", null, null);
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(" + field.getType().getDescriptor() + ")V", null, null), field, "set");
             method.visitCode();
             method.visitVarInsn(field.getType().getOpcode(Opcodes.ILOAD), 0);
-            method.visitFieldInsn(Opcodes.PUTSTATIC, holder, field.getName(), field.getType().getDescriptor());
+            method.visitFieldInsn(Opcodes.PUTSTATIC, shard, field.getName(), field.getType().getDescriptor());
             method.visitInsn(Opcodes.RETURN);
-            method.visitMaxs(1, 1);
+            method.visitMaxs(field.getType().getSize(), field.getType().getSize());
             method.visitEnd();
         });
 
+        Set<SyntheticField> atomics = new HashSet<>();
+
+        holderAtomics.forEach((operation, names) -> names.forEach((field, name) -> {
+            if (!getHolder(field).equals(shard)) {
+                return;
+            }
+
+            fields.add(field);
+            atomics.add(field);
+            accessors[0]++;
+
+            MethodVisitor method = count(counters, visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, operation.getDescriptor(field.getType()), null, null), field, operation.getMethod());
+            VarHandles.accessor(method, shard, field, operation, null);
+        }));
+
         fields.forEach(f -> {
-            FieldVisitor field = visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, f.getName(), f.getType().getDescriptor(), null, null);
+            FieldVisitor field = visitor.visitField((publicHolder ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE) | Opcodes.ACC_STATIC | (f.getFieldAccess() & Opcodes.ACC_VOLATILE), f.getName(), f.getType().getDescriptor(), null, f.getValue());
             field.visitEnd();
         });
 
+        emitInitializer(visitor, shard, shard, atomics, counters);
         visitor.visitEnd();
+        commit(event, "holder", shard, accessors[0]);
+    }
+
+    private static EmitEvent begin() {
+        if (!Events.AVAILABLE) {
+            return null;
+        }
+
+        EmitEvent event = new EmitEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commit(EmitEvent event, String kind, String className, int accessors) {
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        event.kind = kind;
+        event.className = className;
+        event.target = name;
+        event.accessors = accessors;
+
+        pending = event;
+
+        if (!deferEvents) {
+            commitEvent(0);
+        }
+    }
+
+    /**
+     * Leaves the JFR event of each emitted class uncommitted, for {@link #commitEvent} to add its size once written
+     */
+    public synchronized void deferEvents() {
+        deferEvents = true;
+    }
+
+    /**
+     * Commits the event of the class emitted last, if {@link #deferEvents() deferred}
+     *
+     * @param size The size of the class file, or 0 if it was not written
+     */
+    public synchronized void commitEvent(long size) {
+        EmitEvent event = pending;
+        pending = null;
+
+        if (event != null && event.shouldCommit()) {
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    private MethodVisitor count(Counters counters, MethodVisitor method, SyntheticField field, String operation) {
+        return counters == null ? method : counters.count(method, Counters.getKey(name, field, operation));
+    }
+
+    /**
+     * Emits the handle fields of atomic fields and the counter fields, and a static initializer looking them up
+     *
+     * @param visitor  The class
+     * @param owner    The class which will declare the fields at runtime
+     * @param holder   The class being emitted
+     * @param fields   The atomic fields
+     * @param counters The counters, or null if not profiling
+     */
+    private static void emitInitializer(ClassVisitor visitor, String owner, String holder, Set<SyntheticField> fields, Counters counters) {
+        if (fields.isEmpty() && (counters == null || counters.isEmpty())) {
+            return;
+        }
+
+        MethodVisitor method = visitor.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        method.visitCode();
+
+        for (SyntheticField field : fields) {
+            visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, VarHandles.getHandleName(field), VarHandles.DESCRIPTOR, null, null).visitEnd();
+            VarHandles.initialize(method, owner, field, holder);
+        }
+
+        if (counters != null) {
+            counters.emitFields(visitor);
+            counters.initialize(method);
+        }
+
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(VarHandles.INITIALIZE_STACK, 0);
+        method.visitEnd();
     }
 }
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.emitter.emitters;
+
+import io.github.fukkitmc.gloom.asm.RewriteTable;
+import io.github.fukkitmc.gloom.asm.VarHandles;
+import io.github.fukkitmc.gloom.definitions.AtomicAccessor;
+import io.github.fukkitmc.gloom.definitions.SyntheticField;
+import io.github.fukkitmc.gloom.emitter.AbstractEmitter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * Emits a holder storing instance synthetic fields in {@link io.github.fukkitmc.gloom.runtime.SideTable side tables},
+ * for targets which cannot be mixed into, such as JDK classes
+ *
+ * <p>Instance fields are accessed through static methods of the holder taking the receiver first. Their atomic
+ * accessors update the table's slots atomically, comparing primitive values by value, while static atomic fields use
+ * a {@code VarHandle} like other holders
+ */
+public class SideTableEmitter extends AbstractEmitter {
+
+    private static final String SIDE_TABLE = "io/github/fukkitmc/gloom/runtime/SideTable";
+    private static final String SIDE_TABLE_DESCRIPTOR = "L" + SIDE_TABLE + ";";
+
+    private final String name;
+    private final String holder;
+    private final boolean perTarget;
+
+    /**
+     * @param name      The target class
+     * @param holder    The holder to emit
+     * @param perTarget Whether all the fields of an instance share one table, rather than a table for each field
+     */
+    public SideTableEmitter(String name, String holder, boolean perTarget) {
+        super(name);
+        this.name = name;
+        this.holder = holder;
+        this.perTarget = perTarget;
+    }
+
+    public SideTableEmitter(String name, String holder) {
+        this(name, holder, false);
+    }
+
+    @Override
+    public String getHolder() {
+        return holder;
+    }
+
+    /**
+     * @return null, as instance fields are stored in side tables rather than behind an interface
+     */
+    @Override
+    public String getInterface() {
+        return null;
+    }
+
+    @Override
+    public boolean storesInstanceFields() {
+        return true;
+    }
+
+    public synchronized boolean shouldEmitHolder() {
+        return !holderGets.isEmpty() || !holderSets.isEmpty() || !interfaceGets.isEmpty() || !interfaceSets.isEmpty() || !holderAtomics.isEmpty() || !interfaceAtomics.isEmpty();
+    }
+
+    public synchronized void emitHolder(ClassVisitor visitor) {
+        visitor.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, holder, null, "java/lang/Object", null);
+
+        {
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "()V", null, null);
+            method.visitCode();
+            method.visitVarInsn(Opcodes.ALOAD, 0);
+            method.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(1, 1);
+            method.visitEnd();
+        }
+
+        Set<SyntheticField> statics = new HashSet<>();
+        Set<SyntheticField> atomics = new HashSet<>();
+        statics.addAll(holderGets.keySet());
+        statics.addAll(holderSets.keySet());
+
+        holderAtomics.forEach((operation, names) -> names.forEach((field, name) -> {
+            statics.add(field);
+            atomics.add(field);
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, operation.getDescriptor(field.getType()), null, null);
+            VarHandles.accessor(method, holder, field, operation, null);
+        }));
+
+        holderGets.forEach((field, name) -> {
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, field.getGetterDescriptor(), null, null);
+            method.visitCode();
+            method.visitFieldInsn(Opcodes.GETSTATIC, holder, field.getName(), field.getType().getDescriptor());
+            method.visitInsn(field.getType().getOpcode(Opcodes.IRETURN));
+            method.visitMaxs(field.getType().getSize(), 0);
+            method.visitEnd();
+        });
+
+        holderSets.forEach((field, name) -> {
+            MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, field.getSetterDescriptor(), null, null);
+            method.visitCode();
+            method.visitVarInsn(field.getType().getOpcode(Opcodes.ILOAD), 0);
+            method.visitFieldInsn(Opcodes.PUTSTATIC, holder, field.getName(), field.getType().getDescriptor());
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(field.getType().getSize(), field.getType().getSize());
+            method.visitEnd();
+        });
+
+        for (SyntheticField field : statics) {
+            visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | (field.getFieldAccess() & Opcodes.ACC_VOLATILE), field.getName(), field.getType().getDescriptor(), null, field.getValue()).visitEnd();
+        }
+
+        // Sorted, so that slots are stable between runs
+        Map<String, List<SyntheticField>> tables = new TreeMap<>();
+        Set<SyntheticField> instances = new TreeSet<>(Comparator.comparing(SyntheticField::getName));
+        instances.addAll(interfaceGets.keySet());
+        instances.addAll(interfaceSets.keySet());
+        interfaceAtomics.values().forEach(names -> instances.addAll(names.keySet()));
+
+        for (SyntheticField field : instances) {
+            tables.computeIfAbsent(perTarget ? "table" : "table$" + field.getName(), t -> new ArrayList<>()).add(field);
+        }
+
+        tables.forEach((table, fields) -> {
+            for (int slot = 0; slot < fields.size(); slot++) {
+                SyntheticField field = fields.get(slot);
+                String getter = interfaceGets.get(field);
+                String setter = interfaceSets.get(field);
+
+                if (getter != null) {
+                    emitGetter(visitor, table, slot, field, getter);
+                }
+
+                if (setter != null) {
+                    emitSetter(visitor, table, slot, field, setter);
+                }
+
+                for (Map.Entry<AtomicAccessor.Operation, Map<SyntheticField, String>> entry : interfaceAtomics.entrySet()) {
+                    String accessor = entry.getValue().get(field);
+
+                    if (accessor != null) {
+                        emitAtomic(visitor, table, slot, field, entry.getKey(), accessor);
+                    }
+                }
+            }
+        });
+
+        if (!tables.isEmpty() || !atomics.isEmpty()) {
+            emitInitializer(visitor, tables, atomics);
+        }
+
+        visitor.visitEnd();
+    }
+
+    private void emitGetter(ClassVisitor visitor, String table, int slot, SyntheticField field, String name) {
+        Type type = field.getType();
+        MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(" + Type.getObjectType(this.name).getDescriptor() + ")" + type.getDescriptor(), null, null);
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, holder, table, SIDE_TABLE_DESCRIPTOR);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        RewriteTable.push(method, slot);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SIDE_TABLE, "get", "(Ljava/lang/Object;I)Ljava/lang/Object;", false);
+        unbox(method, type);
+        method.visitInsn(type.getOpcode(Opcodes.IRETURN));
+        method.visitMaxs(3, 1);
+        method.visitEnd();
+    }
+
+    private void emitSetter(ClassVisitor visitor, String table, int slot, SyntheticField field, String name) {
+        Type type = field.getType();
+        MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(" + Type.getObjectType(this.name).getDescriptor() + type.getDescriptor() + ")V", null, null);
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, holder, table, SIDE_TABLE_DESCRIPTOR);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        RewriteTable.push(method, slot);
+        method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        box(method, type);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SIDE_TABLE, "set", "(Ljava/lang/Object;ILjava/lang/Object;)V", false);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(3 + type.getSize(), 1 + type.getSize());
+        method.visitEnd();
+    }
+
+    private void emitAtomic(ClassVisitor visitor, String table, int slot, SyntheticField field, AtomicAccessor.Operation operation, String name) {
+        Type type = field.getType();
+        boolean primitive = getBox(type) != null;
+        MethodVisitor method = visitor.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, RewriteTable.withReceiver(this.name, operation.getDescriptor(type)), null, null);
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, holder, table, SIDE_TABLE_DESCRIPTOR);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        RewriteTable.push(method, slot);
+        method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        box(method, type);
+
+        if (operation == AtomicAccessor.Operation.COMPARE_AND_SET) {
+            method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1 + type.getSize());
+            box(method, type);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SIDE_TABLE, primitive ? "compareAndSetValue" : "compareAndSet", "(Ljava/lang/Object;ILjava/lang/Object;Ljava/lang/Object;)Z", false);
+            method.visitInsn(Opcodes.IRETURN);
+        } else {
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SIDE_TABLE, operation.getMethod(), "(Ljava/lang/Object;ILjava/lang/Object;)Ljava/lang/Object;", false);
+            unbox(method, type);
+            method.visitInsn(type.getOpcode(Opcodes.IRETURN));
+        }
+
+        // The table, receiver, slot and two boxes, or a wide value before it is boxed
+        method.visitMaxs(4 + type.getSize(), 1 + 2 * type.getSize());
+        method.visitEnd();
+    }
+
+    /**
+     * Emits the table fields and the handle fields of static atomic fields, and a static initializer creating the
+     * tables with the fields' initial values and looking up the handles
+     */
+    private void emitInitializer(ClassVisitor visitor, Map<String, List<SyntheticField>> tables, Set<SyntheticField> atomics) {
+        MethodVisitor method = visitor.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        method.visitCode();
+
+        for (SyntheticField field : atomics) {
+            visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, VarHandles.getHandleName(field), VarHandles.DESCRIPTOR, null, null).visitEnd();
+            VarHandles.initialize(method, holder, field, holder);
+        }
+
+        tables.forEach((table, fields) -> {
+            visitor.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, table, SIDE_TABLE_DESCRIPTOR, null, null).visitEnd();
+
+            method.visitTypeInsn(Opcodes.NEW, SIDE_TABLE);
+            method.visitInsn(Opcodes.DUP);
+            RewriteTable.push(method, fields.size());
+            method.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+
+            for (int slot = 0; slot < fields.size(); slot++) {
+                SyntheticField field = fields.get(slot);
+                Type type = field.getType();
+
+                method.visitInsn(Opcodes.DUP);
+                RewriteTable.push(method, slot);
+
+                if (field.getValue() != null) {
+                    RewriteTable.push(method, field.getValue());
+                } else {
+                    pushDefault(method, type);
+                }
+
+                box(method, type);
+                method.visitInsn(Opcodes.AASTORE);
+            }
+
+            method.visitMethodInsn(Opcodes.INVOKESPECIAL, SIDE_TABLE, "<init>", "([Ljava/lang/Object;)V", false);
+            method.visitFieldInsn(Opcodes.PUTSTATIC, holder, table, SIDE_TABLE_DESCRIPTOR);
+        });
+
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(7, 0);
+        method.visitEnd();
+    }
+
+    private static void pushDefault(MethodVisitor method, Type type) {
+        switch (type.getSort()) {
+            case Type.LONG:
+                method.visitInsn(Opcodes.LCONST_0);
+                break;
+            case Type.FLOAT:
+                method.visitInsn(Opcodes.FCONST_0);
+                break;
+            case Type.DOUBLE:
+                method.visitInsn(Opcodes.DCONST_0);
+                break;
+            case Type.OBJECT:
+            case Type.ARRAY:
+                method.visitInsn(Opcodes.ACONST_NULL);
+                break;
+            default:
+                method.visitInsn(Opcodes.ICONST_0);
+        }
+    }
+
+    private static void box(MethodVisitor method, Type type) {
+        String box = getBox(type);
+
+        if (box != null) {
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, box, "valueOf", "(" + type.getDescriptor() + ")L" + box + ";", false);
+        }
+    }
+
+    private static void unbox(MethodVisitor method, Type type) {
+        String box = getBox(type);
+
+        if (box != null) {
+            method.visitTypeInsn(Opcodes.CHECKCAST, box);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, box, type.getClassName() + "Value", "()" + type.getDescriptor(), false);
+        } else if (!type.getDescriptor().equals("Ljava/lang/Object;")) {
+            method.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+        }
+    }
+
+    /**
+     * @return The internal name of the primitive type's box, or null for reference types
+     */
+    private static String getBox(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Produces and validates AppCDS archives by running a local JVM, so a transformed server can start from a shared
+ * archive. Archives are only valid for the exact JVM and class path they were dumped with
+ */
+public class CdsArchive {
+
+    private final Path java;
+
+    /**
+     * @param java The {@code java} executable to dump and validate archives with
+     */
+    public CdsArchive(Path java) {
+        this.java = java;
+    }
+
+    public CdsArchive() {
+        this(Paths.get(System.getProperty("java.home"), "bin", "java"));
+    }
+
+    /**
+     * Dumps a static archive of the classes in a {@link ClassList class list}
+     *
+     * @param classList The class list
+     * @param classPath The class path the archive will be used with
+     * @param archive   The archive to write
+     */
+    public void dump(Path classList, String classPath, Path archive) throws IOException {
+        run(Arrays.asList("-Xshare:dump", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive, "-cp", classPath));
+    }
+
+    /**
+     * Runs the application once and dumps a dynamic archive of the classes it loaded at exit, which needs JDK 13 or
+     * newer. The application has to exit on its own
+     *
+     * @param classPath The class path
+     * @param mainClass The main class's binary name
+     * @param arguments The application's arguments
+     * @param archive   The archive to write
+     */
+    public void dumpDynamic(String classPath, String mainClass, List<String> arguments, Path archive) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList("-XX:ArchiveClassesAtExit=" + archive, "-cp", classPath, mainClass));
+        command.addAll(arguments);
+        run(command);
+    }
+
+    public void dumpDynamic(String classPath, String mainClass, Path archive) throws IOException {
+        dumpDynamic(classPath, mainClass, Collections.emptyList(), archive);
+    }
+
+    /**
+     * Checks that the JVM maps the archive, by starting it with sharing required. This only proves that the archive's
+     * header matches the JVM and class path, not that any application class was archived, see
+     * {@link #isArchived(String, Path, String)}
+     *
+     * @param classPath The class path the archive was dumped with
+     * @param archive   The archive
+     * @return Whether the archive can be mapped
+     */
+    public boolean validate(String classPath, Path archive) throws IOException {
+        try {
+            run(Arrays.asList("-Xshare:on", "-XX:SharedArchiveFile=" + archive, "-cp", classPath, "-version"));
+            return true;
+        } catch (ArchiveException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that a class is loaded from the archive, by loading it as the main class with sharing required and class
+     * loading logged, without running it
+     *
+     * @param classPath The class path the archive was dumped with
+     * @param archive   The archive
+     * @param mainClass The binary name of a class with a main method
+     * @return Whether the archive can be mapped and the class was loaded from it
+     */
+    public boolean isArchived(String classPath, Path archive, String mainClass) throws IOException {
+        String output;
+
+        try {
+            output = run(Arrays.asList("-Xshare:on", "-XX:SharedArchiveFile=" + archive, "-Xlog:class+load=info", "-cp", classPath, "--dry-run", mainClass));
+        } catch (ArchiveException e) {
+            return false;
+        }
+
+        // Dynamic archives log "shared objects file (top)"
+        return output.contains("] " + mainClass + " source: shared objects file");
+    }
+
+    private String run(List<String> arguments) throws IOException {
+        List<String> command = new ArrayList<>(arguments.size() + 1);
+        command.add(java.toString());
+        command.addAll(arguments);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output;
+
+        try (InputStream stream = process.getInputStream()) {
+            output = new String(stream.readAllBytes(), Charset.defaultCharset());
+        }
+
+        int exit;
+
+        try {
+            exit = process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command, e);
+        }
+
+        if (exit != 0) {
+            throw new ArchiveException(command + " exited with " + exit + System.lineSeparator() + output);
+        }
+
+        return output;
+    }
+
+    /**
+     * Thrown when the JVM fails to dump or map an archive, with the JVM's output
+     */
+    public static class ArchiveException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ArchiveException(String message) {
+            super(message);
+        }
+    }
+}
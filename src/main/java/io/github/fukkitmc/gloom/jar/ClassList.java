@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import io.github.fukkitmc.gloom.emitter.emitters.GeneratedClasses;
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Creates a CDS class list for a transformed jar and the classes generated for it, for dumping an AppCDS archive with
+ * {@link CdsArchive}
+ *
+ * <p>Classes are listed in the order they are expected to load: generated interfaces first, as transformed targets
+ * implement them, then the jar's classes in entry order and the holders last, with every class after its super types.
+ * Mixins are never listed, as they are never loaded as classes. Only classes loaded from the class path by the
+ * built-in class loaders end up in an archive, the JVM skips the rest
+ */
+public class ClassList {
+
+    private final Map<String, String[]> supers = new HashMap<>();
+    private final Set<String> listed = new LinkedHashSet<>();
+
+    private ClassList() {
+    }
+
+    /**
+     * @param jar       The transformed jar
+     * @param generated The classes generated for it
+     * @return The internal names of the classes, in load order
+     */
+    public static List<String> create(Path jar, GeneratedClasses generated) throws IOException {
+        List<byte[]> classes = new ArrayList<>();
+
+        try (MappedJar mapped = MappedJar.open(jar)) {
+            for (MappedJar.Entry entry : mapped.getEntries()) {
+                String name = entry.getName();
+
+                if (!entry.isDirectory() && name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")) {
+                    classes.add(entry.read());
+                }
+            }
+        }
+
+        return create(classes, generated);
+    }
+
+    /**
+     * @param classes   The bytes of the transformed classes, in the order they are expected to load
+     * @param generated The classes generated for them
+     * @return The internal names of the classes, in load order
+     */
+    public static List<String> create(Collection<byte[]> classes, GeneratedClasses generated) {
+        ClassList list = new ClassList();
+        List<String> roots = new ArrayList<>(generated.getInterfaces().keySet());
+
+        for (byte[] bytes : classes) {
+            roots.add(list.read(bytes));
+        }
+
+        for (byte[] bytes : generated.getInterfaces().values()) {
+            list.read(bytes);
+        }
+
+        for (Map.Entry<String, byte[]> holder : generated.getHolders().entrySet()) {
+            list.read(holder.getValue());
+            roots.add(holder.getKey());
+        }
+
+        for (String root : roots) {
+            list.add(root);
+        }
+
+        return new ArrayList<>(list.listed);
+    }
+
+    private String read(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        String[] interfaces = reader.getInterfaces();
+        String[] types = Arrays.copyOf(interfaces, interfaces.length + 1);
+        types[interfaces.length] = reader.getSuperName();
+        supers.put(reader.getClassName(), types);
+        return reader.getClassName();
+    }
+
+    private void add(String name) {
+        String[] types = supers.get(name);
+
+        // Classes outside the jar, such as the JDK's, are left to the JVM's own archive
+        if (types == null || listed.contains(name)) {
+            return;
+        }
+
+        // Guards against cycles in broken hierarchies
+        supers.remove(name);
+
+        for (int i = types.length - 1; i >= 0; i--) {
+            if (types[i] != null) {
+                add(types[i]);
+            }
+        }
+
+        listed.add(name);
+    }
+
+    /**
+     * Writes a class list in the format of {@code -XX:SharedClassListFile}
+     *
+     * @param classes The internal names of the classes
+     * @param path    The file to write
+     */
+    public static void write(List<String> classes, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# Generated by Gloom");
+            writer.newLine();
+
+            for (String name : classes) {
+                writer.write(name);
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import io.github.fukkitmc.gloom.asm.ReferenceIndex;
+import io.github.fukkitmc.gloom.definitions.*;
+import org.objectweb.asm.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Derives {@link GloomDefinitions definitions} from what a patched jar adds on top of a vanilla jar
+ *
+ * <p>Added interfaces are injected, added fields become {@link SyntheticField synthetic fields} with accessors named
+ * after them, and added methods which only pass their arguments on to another method become
+ * {@link SyntheticMethod synthetic methods} redirecting to it. Everything else which was added, including whole
+ * classes, is reported as unsupported. Classes whose entries have the same CRC-32 and size are assumed identical
+ * and are never inflated, and the rest are compared in parallel on the provided executor
+ */
+public class DefinitionExtractor {
+
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final Executor executor;
+
+    public DefinitionExtractor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public DefinitionExtractor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param vanilla The jar to compare against
+     * @param patched The jar adding members
+     * @return The definitions of the added members
+     */
+    public Result extract(Path vanilla, Path patched) throws IOException {
+        try (MappedJar original = MappedJar.open(vanilla); MappedJar modified = MappedJar.open(patched)) {
+            Map<String, MappedJar.Entry> classes = new HashMap<>();
+
+            for (MappedJar.Entry entry : original.getEntries()) {
+                if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                    classes.put(entry.getName(), entry);
+                }
+            }
+
+            List<CompletableFuture<Comparison>> comparisons = new ArrayList<>();
+            Set<String> unsupported = new TreeSet<>();
+
+            for (MappedJar.Entry entry : modified.getEntries()) {
+                String name = entry.getName();
+
+                if (entry.isDirectory() || !name.endsWith(".class")) {
+                    continue;
+                }
+
+                MappedJar.Entry before = classes.get(name);
+
+                if (before == null) {
+                    unsupported.add(name.substring(0, name.length() - 6));
+                } else if (before.getCrc() != entry.getCrc() || before.getSize() != entry.getSize()) {
+                    comparisons.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return compare(before.read(), entry.read());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor));
+                }
+            }
+
+            Set<ClassDefinition> definitions = new HashSet<>();
+
+            for (CompletableFuture<Comparison> future : comparisons) {
+                Comparison comparison = JarProcessor.join(future);
+
+                if (comparison.definition != null) {
+                    definitions.add(comparison.definition);
+                }
+
+                unsupported.addAll(comparison.unsupported);
+            }
+
+            return new Result(new GloomDefinitions(definitions), unsupported);
+        }
+    }
+
+    private static Comparison compare(byte[] vanilla, byte[] patched) {
+        Members before = new Members();
+        new ClassReader(vanilla).accept(before, ClassReader.SKIP_CODE | PARSING_OPTIONS);
+        Members after = new Members(before);
+        new ClassReader(patched).accept(after, PARSING_OPTIONS);
+
+        String owner = after.name;
+        Set<String> unsupported = new TreeSet<>();
+        Set<String> injectInterfaces = new LinkedHashSet<>(after.interfaces);
+        Set<SyntheticField> syntheticFields = new HashSet<>();
+        Set<SyntheticMethod> syntheticMethods = new HashSet<>();
+
+        injectInterfaces.removeAll(before.interfaces);
+
+        for (FieldInfo field : after.fields.values()) {
+            if (!before.fields.containsKey(field.name + field.descriptor)) {
+                syntheticFields.add(toSyntheticField(after, field));
+            }
+        }
+
+        for (Delegation method : after.added) {
+            if (method.redirect == null) {
+                unsupported.add(ReferenceIndex.memberKey(owner, method.name, method.descriptor));
+            } else {
+                syntheticMethods.add(new SyntheticMethod(method.opcode, method.access, method.name, method.descriptor, method.signature, method.redirect));
+            }
+        }
+
+        ClassDefinition definition = null;
+
+        if (!injectInterfaces.isEmpty() || !syntheticFields.isEmpty() || !syntheticMethods.isEmpty()) {
+            definition = new ClassDefinition(owner, injectInterfaces, syntheticFields, syntheticMethods);
+        }
+
+        return new Comparison(definition, unsupported);
+    }
+
+    private static SyntheticField toSyntheticField(Members members, FieldInfo field) {
+        Type type = Type.getType(field.descriptor);
+        int accessorAccess = Opcodes.ACC_PUBLIC | (field.access & Opcodes.ACC_STATIC);
+        String suffix = Character.toUpperCase(field.name.charAt(0)) + field.name.substring(1);
+        Accessor getter = null;
+        Accessor setter = null;
+
+        // Don't shadow methods the patched class declares itself
+        if (!members.methods.contains("get" + suffix + Type.getMethodDescriptor(type))) {
+            getter = new Accessor(accessorAccess, type, "get" + suffix, null);
+        }
+
+        if ((field.access & Opcodes.ACC_FINAL) == 0 && !members.methods.contains("set" + suffix + Type.getMethodDescriptor(Type.VOID_TYPE, type))) {
+            setter = new Accessor(accessorAccess, type, "set" + suffix, null);
+        }
+
+        return new SyntheticField(field.access, field.name, type, field.signature, getter, setter, Collections.emptySet(), field.value);
+    }
+
+    /**
+     * The definitions extracted from a pair of jars
+     */
+    public static class Result {
+
+        private final GloomDefinitions definitions;
+        private final Set<String> unsupported;
+
+        Result(GloomDefinitions definitions, Set<String> unsupported) {
+            this.definitions = definitions;
+            this.unsupported = unsupported;
+        }
+
+        public GloomDefinitions getDefinitions() {
+            return definitions;
+        }
+
+        /**
+         * @return The internal names of added classes, and the {@link ReferenceIndex#memberKey member keys} of added
+         * methods which do more than delegate, none of which can be expressed as definitions
+         */
+        public Set<String> getUnsupported() {
+            return unsupported;
+        }
+    }
+
+    private static class Comparison {
+
+        final ClassDefinition definition;
+        final Set<String> unsupported;
+
+        Comparison(ClassDefinition definition, Set<String> unsupported) {
+            this.definition = definition;
+            this.unsupported = unsupported;
+        }
+    }
+
+    private static class FieldInfo {
+
+        final int access;
+        final String name;
+        final String descriptor;
+        final String signature;
+        final Object value;
+
+        FieldInfo(int access, String name, String descriptor, String signature, Object value) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Collects the members of a class. When given the vanilla members, also looks for delegation in added methods
+     */
+    private static class Members extends ClassVisitor {
+
+        private final Members vanilla;
+        String name;
+        final Set<String> interfaces = new HashSet<>();
+        final Map<String, FieldInfo> fields = new LinkedHashMap<>();
+        final Set<String> methods = new HashSet<>();
+        final List<Delegation> added = new ArrayList<>();
+
+        Members(Members vanilla) {
+            super(Opcodes.ASM8);
+            this.vanilla = vanilla;
+        }
+
+        Members() {
+            this(null);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+
+            if (interfaces != null) {
+                this.interfaces.addAll(Arrays.asList(interfaces));
+            }
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            fields.put(name + descriptor, new FieldInfo(access, name, descriptor, signature, value));
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            methods.add(name + descriptor);
+
+            if (vanilla == null || vanilla.methods.contains(name + descriptor)) {
+                return null;
+            }
+
+            Delegation delegation = new Delegation(access, name, descriptor, signature);
+            added.add(delegation);
+            return delegation;
+        }
+    }
+
+    /**
+     * Matches methods which load their receiver and arguments in order, pass them to one method and return its result
+     */
+    private static class Delegation extends MethodVisitor {
+
+        final int access;
+        final String name;
+        final String descriptor;
+        final String signature;
+        private final Type[] parameters;
+        private int loaded;
+        private int slot;
+        private boolean failed;
+        private boolean returned;
+        int opcode;
+        RedirectTarget redirect;
+
+        Delegation(int access, String name, String descriptor, String signature) {
+            super(Opcodes.ASM8);
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+
+            Type[] arguments = Type.getArgumentTypes(descriptor);
+
+            if ((access & Opcodes.ACC_STATIC) == 0) {
+                parameters = new Type[arguments.length + 1];
+                parameters[0] = Type.getObjectType("java/lang/Object");
+                System.arraycopy(arguments, 0, parameters, 1, arguments.length);
+            } else {
+                parameters = arguments;
+            }
+
+            // Constructors and initializers can't be trampolines, and abstract methods have no code
+            failed = name.startsWith("<") || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0;
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            if (redirect == null && loaded < parameters.length && var == slot && opcode == parameters[loaded].getOpcode(Opcodes.ILOAD)) {
+                slot += parameters[loaded++].getSize();
+            } else {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            int consumed = (Type.getArgumentsAndReturnSizes(descriptor) >> 2) - (opcode == Opcodes.INVOKESTATIC ? 1 : 0);
+
+            if (redirect != null || loaded != parameters.length || consumed != slot || name.equals("<init>")
+                    || !Type.getReturnType(descriptor).equals(Type.getReturnType(this.descriptor))) {
+                failed = true;
+                return;
+            }
+
+            this.opcode = opcode;
+            this.redirect = new RedirectTarget(owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (redirect != null && !returned && opcode == Type.getReturnType(descriptor).getOpcode(Opcodes.IRETURN)) {
+                returned = true;
+            } else {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            failed = true;
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            failed = true;
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            failed = true;
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            failed = true;
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            failed = true;
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            failed = true;
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            failed = true;
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            failed = true;
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            failed = true;
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            failed = true;
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            failed = true;
+        }
+
+        @Override
+        public void visitEnd() {
+            if (failed || !returned) {
+                redirect = null;
+            }
+        }
+    }
+}
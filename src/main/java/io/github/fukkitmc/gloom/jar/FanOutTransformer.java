@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import io.github.fukkitmc.gloom.asm.ClassIndex;
+import io.github.fukkitmc.gloom.asm.Illuminate;
+import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
+import io.github.fukkitmc.gloom.emitter.EmitterProvider;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Transforms classes for several definition variants at once, such as server flavors or optional feature packs,
+ * parsing each class a single time into a tree shared by every variant
+ *
+ * <p>Each variant has its own {@link GloomClassTransformer}, and so its own emitters. Like {@link JarProcessor},
+ * classes are transformed on the calling thread and deflated in parallel on the executor. Like
+ * {@link StreamingJarProcessor}, at most {@code depth} entries are in flight before being written, so memory does
+ * not grow with the size of the jar or with the number of variants times that
+ */
+public class FanOutTransformer {
+
+    private final List<GloomClassTransformer> variants;
+    private final Executor executor;
+    private final int depth;
+
+    /**
+     * @param variants The transformer of each variant
+     * @param executor The executor compressing entries
+     * @param depth    The maximum number of entries in flight before being written to every variant
+     */
+    public FanOutTransformer(List<GloomClassTransformer> variants, Executor executor, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+
+        this.variants = new ArrayList<>(variants);
+        this.executor = executor;
+        this.depth = depth;
+    }
+
+    public FanOutTransformer(List<GloomClassTransformer> variants, Executor executor) {
+        this(variants, executor, 64);
+    }
+
+    public FanOutTransformer(List<GloomClassTransformer> variants) {
+        this(variants, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a transformer injecting and illuminating each definition set with its own emitters
+     *
+     * @param variants  The definition sets
+     * @param providers Creates the emitter provider of each definition set
+     * @param hierarchy The hierarchy shared by every variant, used to resolve owners and to write classes, or null
+     * @return The transformer, with variants in the same order
+     */
+    public static FanOutTransformer create(List<GloomDefinitions> variants, Function<GloomDefinitions, EmitterProvider<?>> providers, ClassIndex hierarchy) {
+        List<GloomClassTransformer> transformers = new ArrayList<>(variants.size());
+
+        for (GloomDefinitions definitions : variants) {
+            transformers.add(new GloomClassTransformer(definitions, new Illuminate(definitions, providers.apply(definitions), hierarchy), hierarchy));
+        }
+
+        return new FanOutTransformer(transformers);
+    }
+
+    public static FanOutTransformer create(List<GloomDefinitions> variants, Function<GloomDefinitions, EmitterProvider<?>> providers) {
+        return create(variants, providers, null);
+    }
+
+    public int getVariantCount() {
+        return variants.size();
+    }
+
+    /**
+     * @param name  The class's internal name
+     * @param bytes The class file
+     * @return The transformed class file of each variant, null where the variant left the class unchanged
+     */
+    public byte[][] transform(String name, byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, 0);
+
+        byte[][] transformed = new byte[variants.size()][];
+
+        for (int i = 0; i < transformed.length; i++) {
+            transformed[i] = variants.get(i).transform(name, node);
+        }
+
+        return transformed;
+    }
+
+    public void process(Path input, List<Path> outputs) throws IOException {
+        process(input, outputs, Collections.nCopies(outputs.size(), Collections::emptyMap));
+    }
+
+    /**
+     * Writes a jar for every variant, reading the input once. The outputs are only replaced once every variant has
+     * been written, one after another, so a failure before then leaves all of them untouched. Failing to move one
+     * into place reports the outputs which were already replaced
+     *
+     * @param input     The jar to read
+     * @param outputs   The jar to write for each variant
+     * @param additions Gives the extra entries of each variant by entry name, such as its emitted classes. These are
+     *                  only asked for once every class has been transformed, and replace existing entries
+     */
+    public void process(Path input, List<Path> outputs, List<? extends Supplier<Map<String, byte[]>>> additions) throws IOException {
+        if (outputs.size() != variants.size() || additions.size() != variants.size()) {
+            throw new IllegalArgumentException("Expected " + variants.size() + " outputs and additions");
+        }
+
+        List<RawJarWriter> writers = new ArrayList<>(variants.size());
+
+        try (MappedJar jar = MappedJar.open(input)) {
+            Deque<Pending> pending = new ArrayDeque<>(depth);
+            Set<String> names = new HashSet<>();
+
+            for (Path output : outputs) {
+                writers.add(new RawJarWriter(output));
+            }
+
+            for (MappedJar.Entry entry : jar.getEntries()) {
+                String name = entry.getName();
+                List<CompletableFuture<RawJarWriter.Compressed>> compressed = new ArrayList<>(Collections.nCopies(variants.size(), null));
+                names.add(name);
+
+                if (!entry.isDirectory() && name.endsWith(".class")) {
+                    byte[][] transformed = transform(name.substring(0, name.length() - 6), entry.read());
+                    boolean store = entry.getMethod() == MappedJar.STORED;
+
+                    for (int v = 0; v < transformed.length; v++) {
+                        byte[] bytes = transformed[v];
+
+                        if (bytes != null) {
+                            compressed.set(v, CompletableFuture.supplyAsync(() -> RawJarWriter.compress(name, bytes, store), executor));
+                        }
+                    }
+                }
+
+                pending.add(new Pending(entry, compressed));
+
+                if (pending.size() >= depth) {
+                    pending.remove().write(writers);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                pending.remove().write(writers);
+            }
+
+            for (int v = 0; v < variants.size(); v++) {
+                add(additions.get(v).get(), names, writers.get(v));
+            }
+
+            for (int v = 0; v < writers.size(); v++) {
+                try {
+                    writers.get(v).finish();
+                } catch (IOException e) {
+                    if (v == 0) {
+                        throw e;
+                    }
+
+                    throw new IOException("Failed to replace " + outputs.get(v) + " after replacing " + outputs.subList(0, v), e);
+                }
+            }
+        } finally {
+            for (RawJarWriter writer : writers) {
+                writer.close();
+            }
+        }
+    }
+
+    private void add(Map<String, byte[]> additions, Set<String> names, RawJarWriter writer) throws IOException {
+        List<CompletableFuture<RawJarWriter.Compressed>> added = new ArrayList<>(additions.size());
+        additions.forEach((name, bytes) -> added.add(CompletableFuture.supplyAsync(() -> RawJarWriter.compress(name, bytes, false), executor)));
+        Set<String> replaced = new HashSet<>(additions.keySet());
+        replaced.retainAll(names);
+
+        if (!replaced.isEmpty()) {
+            writer.remove(replaced);
+        }
+
+        for (CompletableFuture<RawJarWriter.Compressed> future : added) {
+            writer.write(JarProcessor.join(future), null);
+        }
+    }
+
+    /**
+     * An entry of the input, with its compressed replacement in each variant which changed it
+     */
+    private static class Pending {
+
+        final MappedJar.Entry entry;
+        final List<CompletableFuture<RawJarWriter.Compressed>> compressed;
+
+        Pending(MappedJar.Entry entry, List<CompletableFuture<RawJarWriter.Compressed>> compressed) {
+            this.entry = entry;
+            this.compressed = compressed;
+        }
+
+        void write(List<RawJarWriter> writers) throws IOException {
+            for (int v = 0; v < writers.size(); v++) {
+                CompletableFuture<RawJarWriter.Compressed> future = compressed.get(v);
+
+                if (future == null) {
+                    writers.get(v).copy(entry);
+                } else {
+                    writers.get(v).write(JarProcessor.join(future), entry);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import io.github.fukkitmc.gloom.asm.ClassIndex;
+import io.github.fukkitmc.gloom.asm.GloomInjector;
+import io.github.fukkitmc.gloom.asm.HierarchyClassWriter;
+import io.github.fukkitmc.gloom.asm.Illuminate;
+import io.github.fukkitmc.gloom.asm.IlluminateClassVisitor;
+import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
+import io.github.fukkitmc.gloom.jfr.Events;
+import io.github.fukkitmc.gloom.jfr.TransformEvent;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.function.Consumer;
+
+/**
+ * Applies a {@link GloomInjector} and {@link Illuminate} to classes, reporting whether either changed anything
+ */
+public class GloomClassTransformer implements ClassTransformer {
+
+    private final GloomDefinitions definitions;
+    private final Illuminate illuminate;
+    private final ClassIndex hierarchy;
+
+    /**
+     * @param definitions The definitions to inject, or null to skip injection
+     * @param illuminate  The illuminate, or null to skip illumination
+     * @param hierarchy   The hierarchy the writer answers common super class queries from, or null to let ASM load
+     *                    classes. Gloom's rewrites keep frames valid, so frames are never recomputed here, but
+     *                    subclasses adding {@link ClassWriter#COMPUTE_FRAMES} should provide one
+     */
+    public GloomClassTransformer(GloomDefinitions definitions, Illuminate illuminate, ClassIndex hierarchy) {
+        this.definitions = definitions;
+        this.illuminate = illuminate;
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * @param definitions The definitions to inject, or null to skip injection
+     * @param illuminate  The illuminate, or null to skip illumination
+     */
+    public GloomClassTransformer(GloomDefinitions definitions, Illuminate illuminate) {
+        this(definitions, illuminate, null);
+    }
+
+    @Override
+    public byte[] transform(String name, byte[] bytes) {
+        return transform(name, bytes.length, visitor -> new ClassReader(bytes).accept(visitor, 0));
+    }
+
+    /**
+     * Transforms a class already parsed into a tree, leaving the tree untouched so it can be transformed again
+     *
+     * @param name The class's internal name
+     * @param node The class, read with no {@link ClassReader} flags
+     * @return The transformed class file, or null if the class was not changed
+     */
+    public byte[] transform(String name, ClassNode node) {
+        return transform(name, 0, node::accept);
+    }
+
+    /**
+     * Illuminates and injects a class tree in place, such as one handed over by Mixin or a launcher, without writing
+     * and parsing it again. The tree ends up as the class {@link #transform(String, byte[])} would produce
+     *
+     * @param node The class
+     * @return Whether the class was changed
+     */
+    public boolean transformInPlace(ClassNode node) {
+        // Illuminate before injecting, so the injected accessors are left alone
+        boolean illuminated = illuminate != null && illuminate.illuminate(node) > 0;
+        boolean injected = definitions != null && GloomInjector.inject(node, definitions);
+        return illuminated || injected;
+    }
+
+    private byte[] transform(String name, int inputSize, Consumer<ClassVisitor> source) {
+        if (!Events.AVAILABLE) {
+            return apply(source, inputSize);
+        }
+
+        TransformEvent event = new TransformEvent();
+        event.begin();
+        byte[] transformed = apply(source, inputSize);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.inputSize = inputSize;
+            event.outputSize = transformed == null ? 0 : transformed.length;
+            event.commit();
+        }
+
+        return transformed;
+    }
+
+    private byte[] apply(Consumer<ClassVisitor> source, int inputSize) {
+        ClassWriter writer = createWriter(0);
+        GloomInjector injector = null;
+        IlluminateClassVisitor illuminator = null;
+        ClassVisitor visitor = writer;
+
+        if (definitions != null) {
+            visitor = injector = new GloomInjector(visitor, definitions);
+            injector.deferEvent();
+        }
+
+        // Illuminate before injecting, so the injected accessors are left alone
+        if (illuminate != null) {
+            visitor = illuminator = (IlluminateClassVisitor) illuminate.createVisitor(visitor);
+            illuminator.deferEvent();
+        }
+
+        source.accept(visitor);
+
+        byte[] transformed = null;
+
+        if ((injector != null && injector.isInjected()) || (illuminator != null && illuminator.getRewrites() > 0)) {
+            transformed = writer.toByteArray();
+        }
+
+        int outputSize = transformed == null ? 0 : transformed.length;
+
+        // Both passes write the same class, so they share its sizes
+        if (injector != null) {
+            injector.commitEvent(inputSize, outputSize);
+        }
+
+        if (illuminator != null) {
+            illuminator.commitEvent(inputSize, outputSize);
+        }
+
+        return transformed;
+    }
+
+    /**
+     * @param flags The {@link ClassWriter} flags
+     * @return The writer to write transformed classes with
+     */
+    protected ClassWriter createWriter(int flags) {
+        return hierarchy == null ? new ClassWriter(flags) : new HierarchyClassWriter(flags, hierarchy);
+    }
+}
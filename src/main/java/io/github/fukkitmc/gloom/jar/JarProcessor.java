@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Transforms the classes of a jar, copying every entry which is left unchanged without recompressing it
+ *
+ * <p>Classes are transformed on the calling thread, so the {@link ClassTransformer} need not be thread safe, while
+ * the changed classes are deflated in parallel on the provided executor
+ */
+public class JarProcessor {
+
+    private final ClassTransformer transformer;
+    private final Executor executor;
+
+    public JarProcessor(ClassTransformer transformer, Executor executor) {
+        this.transformer = transformer;
+        this.executor = executor;
+    }
+
+    public JarProcessor(ClassTransformer transformer) {
+        this(transformer, ForkJoinPool.commonPool());
+    }
+
+    public void process(Path input, Path output) throws IOException {
+        process(input, output, Collections.emptyMap());
+    }
+
+    /**
+     * @param input     The jar to read
+     * @param output    The jar to write
+     * @param additions Extra entries to append, such as emitted classes, by entry name. These replace any existing
+     *                  entry with the same name
+     */
+    public void process(Path input, Path output, Map<String, byte[]> additions) throws IOException {
+        try (MappedJar jar = MappedJar.open(input); RawJarWriter writer = new RawJarWriter(output)) {
+            List<MappedJar.Entry> entries = jar.getEntries();
+            List<CompletableFuture<RawJarWriter.Compressed>> compressed = new ArrayList<>(Collections.nCopies(entries.size(), null));
+
+            for (int i = 0; i < entries.size(); i++) {
+                MappedJar.Entry entry = entries.get(i);
+                String name = entry.getName();
+
+                if (entry.isDirectory() || !name.endsWith(".class") || additions.containsKey(name)) {
+                    continue;
+                }
+
+                byte[] transformed = transformer.transform(name.substring(0, name.length() - 6), entry.read());
+
+                if (transformed != null) {
+                    boolean store = entry.getMethod() == MappedJar.STORED;
+                    compressed.set(i, CompletableFuture.supplyAsync(() -> RawJarWriter.compress(name, transformed, store), executor));
+                }
+            }
+
+            List<CompletableFuture<RawJarWriter.Compressed>> added = new ArrayList<>(additions.size());
+            additions.forEach((name, bytes) -> added.add(CompletableFuture.supplyAsync(() -> RawJarWriter.compress(name, bytes, false), executor)));
+
+            for (int i = 0; i < entries.size(); i++) {
+                CompletableFuture<RawJarWriter.Compressed> future = compressed.get(i);
+
+                if (additions.containsKey(entries.get(i).getName())) {
+                    continue;
+                } else if (future == null) {
+                    writer.copy(entries.get(i));
+                } else {
+                    writer.write(join(future), entries.get(i));
+                }
+            }
+
+            for (CompletableFuture<RawJarWriter.Compressed> future : added) {
+                writer.write(join(future), null);
+            }
+
+            writer.finish();
+        }
+    }
+
+    static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+}
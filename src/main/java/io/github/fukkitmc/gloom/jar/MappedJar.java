@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only jar backed by a memory-mapped file, exposing the compressed bytes of each entry
+ */
+public class MappedJar implements Closeable {
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<Entry> entries;
+
+    private MappedJar(FileChannel channel, ByteBuffer buffer, List<Entry> entries) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public static MappedJar open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Jar is too large to be mapped: " + path);
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedJar(channel, buffer, readEntries(buffer));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static List<Entry> readEntries(ByteBuffer buffer) throws ZipException {
+        int end = findEndOfCentralDirectory(buffer);
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 is not supported");
+        }
+
+        List<Entry> entries = new ArrayList<>(count);
+        int position = (int) offset;
+
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory header at " + position);
+            }
+
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            Entry entry = new Entry(buffer, position, nameLength, extraLength, commentLength);
+
+            entries.add(entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws ZipException {
+        int limit = Math.max(0, buffer.limit() - 22 - 0xFFFF);
+
+        for (int position = buffer.limit() - 22; position >= limit; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+
+        throw new ZipException("No end of central directory found");
+    }
+
+    static byte[] slice(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * An entry's central directory record, and its compressed data
+     */
+    public static class Entry {
+
+        private final ByteBuffer buffer;
+        private final String name;
+        final byte[] rawName;
+        final int versionMadeBy;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int time;
+        final int date;
+        final int crc;
+        final int compressedSize;
+        final int size;
+        final int internalAttributes;
+        final int externalAttributes;
+        final byte[] centralExtra;
+        final byte[] comment;
+        final byte[] localExtra;
+        private final int dataOffset;
+
+        Entry(ByteBuffer buffer, int position, int nameLength, int extraLength, int commentLength) throws ZipException {
+            this.buffer = buffer;
+            this.versionMadeBy = buffer.getShort(position + 4) & 0xFFFF;
+            this.versionNeeded = buffer.getShort(position + 6) & 0xFFFF;
+            this.flags = buffer.getShort(position + 8) & 0xFFFF;
+            this.method = buffer.getShort(position + 10) & 0xFFFF;
+            this.time = buffer.getShort(position + 12) & 0xFFFF;
+            this.date = buffer.getShort(position + 14) & 0xFFFF;
+            this.crc = buffer.getInt(position + 16);
+            this.compressedSize = buffer.getInt(position + 20);
+            this.size = buffer.getInt(position + 24);
+            this.internalAttributes = buffer.getShort(position + 36) & 0xFFFF;
+            this.externalAttributes = buffer.getInt(position + 38);
+            this.rawName = slice(buffer, position + 46, nameLength);
+            this.centralExtra = slice(buffer, position + 46 + nameLength, extraLength);
+            this.comment = slice(buffer, position + 46 + nameLength + extraLength, commentLength);
+            this.name = new String(rawName, StandardCharsets.UTF_8);
+
+            if (compressedSize == -1 || size == -1) {
+                throw new ZipException("Zip64 is not supported: " + name);
+            }
+
+            int local = buffer.getInt(position + 42);
+
+            if (buffer.getInt(local) != LOCAL_HEADER) {
+                throw new ZipException("Invalid local header for " + name);
+            }
+
+            int localNameLength = buffer.getShort(local + 26) & 0xFFFF;
+            int localExtraLength = buffer.getShort(local + 28) & 0xFFFF;
+            this.localExtra = slice(buffer, local + 30 + localNameLength, localExtraLength);
+            this.dataOffset = local + 30 + localNameLength + localExtraLength;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc & 0xFFFFFFFFL;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize & 0xFFFFFFFFL;
+        }
+
+        public long getSize() {
+            return size & 0xFFFFFFFFL;
+        }
+
+        /**
+         * @return A view of the entry's compressed bytes, as stored in the jar
+         */
+        public ByteBuffer getRawData() {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(dataOffset);
+            duplicate.limit(dataOffset + compressedSize);
+            return duplicate.slice();
+        }
+
+        /**
+         * @return The entry's uncompressed bytes
+         */
+        public byte[] read() throws IOException {
+            byte[] raw = slice(buffer, dataOffset, compressedSize);
+
+            if (method == STORED) {
+                return raw;
+            } else if (method != DEFLATED) {
+                throw new ZipException("Unsupported compression method " + method + " for " + name);
+            }
+
+            byte[] bytes = new byte[size];
+            Inflater inflater = new Inflater(true);
+
+            try {
+                inflater.setInput(raw);
+                int read = 0;
+
+                while (read < size) {
+                    int n = inflater.inflate(bytes, read, size - read);
+
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated entry " + name);
+                    }
+
+                    read += n;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt entry " + name + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", method=" + method +
+                    ", compressedSize=" + getCompressedSize() +
+                    ", size=" + getSize() +
+                    '}';
+        }
+    }
+}
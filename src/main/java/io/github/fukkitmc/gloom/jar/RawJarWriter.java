@@ -0,0 +1,373 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes jars, copying the compressed bytes of unchanged {@link MappedJar.Entry entries} as-is
+ *
+ * <p>Entries go to a temporary file next to the jar, which only replaces the jar once {@link #finish() finished}.
+ * Closing a writer which was not finished, such as after a failure, deletes the temporary file and leaves the jar
+ * untouched
+ */
+public class RawJarWriter implements Closeable {
+
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+    // 1980-01-01 00:00, for reproducible output
+    private static final int DEFAULT_DATE = (1 << 5) | 1;
+
+    private final Path path;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(30 + 0xFFFF * 2).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Central> central = new ArrayList<>();
+    private boolean finished;
+
+    public RawJarWriter(Path path) throws IOException {
+        this.path = path;
+        // Not Files.createTempFile, which would leave the jar readable by its owner only
+        this.temporary = path.resolveSibling(path.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Compresses an entry. This does not touch the writer, and can be called from any thread
+     *
+     * @param name  The entry name
+     * @param bytes The uncompressed bytes
+     * @param store Whether to store the entry rather than deflate it
+     * @return The compressed entry
+     */
+    public static Compressed compress(String name, byte[] bytes, boolean store) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        if (store) {
+            return new Compressed(name, MappedJar.STORED, (int) crc.getValue(), bytes.length, bytes);
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+            byte[] buffer = new byte[8192];
+
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            byte[] data = out.toByteArray();
+            return new Compressed(name, MappedJar.DEFLATED, (int) crc.getValue(), bytes.length, data);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Copies an entry's compressed bytes without inflating them
+     *
+     * @param entry The entry
+     */
+    public void copy(MappedJar.Entry entry) throws IOException {
+        int flags = entry.flags & ~DATA_DESCRIPTOR_FLAG;
+        int offset = writeLocal(entry.versionNeeded, flags, entry.method, entry.time, entry.date, entry.crc, entry.compressedSize, entry.size, entry.rawName, entry.localExtra);
+        write(entry.getRawData());
+        central.add(new Central(entry.versionMadeBy, entry.versionNeeded, flags, entry.method, entry.time, entry.date, entry.crc, entry.compressedSize, entry.size, entry.rawName, entry.centralExtra, entry.comment, entry.internalAttributes, entry.externalAttributes, offset));
+    }
+
+    /**
+     * Writes a compressed entry, keeping the attributes of an existing entry
+     *
+     * @param compressed The compressed entry
+     * @param original   The entry it replaces, or null if it is new
+     */
+    public void write(Compressed compressed, MappedJar.Entry original) throws IOException {
+        byte[] name = compressed.name.getBytes(StandardCharsets.UTF_8);
+        int flags = 1 << 11;
+        int versionNeeded = compressed.method == MappedJar.DEFLATED ? 20 : 10;
+        int time = 0;
+        int date = DEFAULT_DATE;
+        byte[] localExtra = new byte[0];
+        byte[] centralExtra = localExtra;
+        byte[] comment = localExtra;
+        int versionMadeBy = 20;
+        int internalAttributes = 0;
+        int externalAttributes = 0;
+
+        if (original != null) {
+            flags = original.flags & ~DATA_DESCRIPTOR_FLAG;
+            time = original.time;
+            date = original.date;
+            localExtra = original.localExtra;
+            centralExtra = original.centralExtra;
+            comment = original.comment;
+            versionMadeBy = original.versionMadeBy;
+            internalAttributes = original.internalAttributes;
+            externalAttributes = original.externalAttributes;
+        }
+
+        int offset = writeLocal(versionNeeded, flags, compressed.method, time, date, compressed.crc, compressed.data.length, compressed.size, name, localExtra);
+        write(ByteBuffer.wrap(compressed.data));
+        central.add(new Central(versionMadeBy, versionNeeded, flags, compressed.method, time, date, compressed.crc, compressed.data.length, compressed.size, name, centralExtra, comment, internalAttributes, externalAttributes, offset));
+    }
+
+    private int writeLocal(int versionNeeded, int flags, int method, int time, int date, int crc, int compressedSize, int size, byte[] name, byte[] extra) throws IOException {
+        long position = channel.position();
+
+        if (position > 0xFFFFFFFFL - 1) {
+            throw new ZipException("Zip64 is not supported");
+        }
+
+        header.clear();
+        header.putInt(MappedJar.LOCAL_HEADER)
+                .putShort((short) versionNeeded)
+                .putShort((short) flags)
+                .putShort((short) method)
+                .putShort((short) time)
+                .putShort((short) date)
+                .putInt(crc)
+                .putInt(compressedSize)
+                .putInt(size)
+                .putShort((short) name.length)
+                .putShort((short) extra.length)
+                .put(name)
+                .put(extra);
+        header.flip();
+        write(header);
+        return (int) position;
+    }
+
+    /**
+     * Removes entries which were already written, such as ones replaced by entries only known at the end. The entries
+     * after them are moved up, so nothing of the removed entries is left in the jar
+     *
+     * @param names The names of the entries to remove
+     */
+    public void remove(Set<String> names) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long end = channel.position();
+        long position = -1;
+
+        for (int i = 0; i < central.size(); i++) {
+            Central entry = central.get(i);
+            long next = i + 1 < central.size() ? central.get(i + 1).offset : end;
+
+            if (names.contains(new String(entry.name, StandardCharsets.UTF_8))) {
+                if (position < 0) {
+                    position = entry.offset;
+                }
+
+                central.remove(i--);
+                continue;
+            }
+
+            if (position < 0) {
+                continue;
+            }
+
+            // Moving down within the same file, so the source is always ahead of the destination
+            central.set(i, new Central(entry.versionMadeBy, entry.versionNeeded, entry.flags, entry.method, entry.time, entry.date, entry.crc, entry.compressedSize, entry.size, entry.name, entry.extra, entry.comment, entry.internalAttributes, entry.externalAttributes, (int) position));
+
+            for (long read = entry.offset; read < next; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), next - read));
+                read += channel.read(buffer, read);
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+
+        if (position >= 0) {
+            channel.truncate(position);
+            channel.position(position);
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the central directory and moves the jar into place, atomically where the file system allows it
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        writeCentralDirectory();
+        channel.close();
+
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        finished = true;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        if (central.size() >= 0xFFFF) {
+            throw new ZipException("Zip64 is not supported");
+        }
+
+        long start = channel.position();
+
+        for (Central entry : central) {
+            header.clear();
+            header.putInt(MappedJar.CENTRAL_HEADER)
+                    .putShort((short) entry.versionMadeBy)
+                    .putShort((short) entry.versionNeeded)
+                    .putShort((short) entry.flags)
+                    .putShort((short) entry.method)
+                    .putShort((short) entry.time)
+                    .putShort((short) entry.date)
+                    .putInt(entry.crc)
+                    .putInt(entry.compressedSize)
+                    .putInt(entry.size)
+                    .putShort((short) entry.name.length)
+                    .putShort((short) entry.extra.length)
+                    .putShort((short) entry.comment.length)
+                    .putShort((short) 0)
+                    .putShort((short) entry.internalAttributes)
+                    .putInt(entry.externalAttributes)
+                    .putInt(entry.offset);
+            header.flip();
+            write(header);
+            write(ByteBuffer.wrap(entry.name));
+            write(ByteBuffer.wrap(entry.extra));
+            write(ByteBuffer.wrap(entry.comment));
+        }
+
+        long end = channel.position();
+
+        if (end > 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 is not supported");
+        }
+
+        header.clear();
+        header.putInt(MappedJar.END_OF_CENTRAL_DIRECTORY)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) central.size())
+                .putShort((short) central.size())
+                .putInt((int) (end - start))
+                .putInt((int) start)
+                .putShort((short) 0);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Discards the jar unless it was {@link #finish() finished}
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * An entry which has been compressed ahead of writing
+     */
+    public static class Compressed {
+
+        final String name;
+        final int method;
+        final int crc;
+        final int size;
+        final byte[] data;
+
+        Compressed(String name, int method, int crc, int size, byte[] data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static class Central {
+
+        final int versionMadeBy;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int time;
+        final int date;
+        final int crc;
+        final int compressedSize;
+        final int size;
+        final byte[] name;
+        final byte[] extra;
+        final byte[] comment;
+        final int internalAttributes;
+        final int externalAttributes;
+        final int offset;
+
+        Central(int versionMadeBy, int versionNeeded, int flags, int method, int time, int date, int crc, int compressedSize, int size, byte[] name, byte[] extra, byte[] comment, int internalAttributes, int externalAttributes, int offset) {
+            this.versionMadeBy = versionMadeBy;
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.name = name;
+            this.extra = extra;
+            this.comment = comment;
+            this.internalAttributes = internalAttributes;
+            this.externalAttributes = externalAttributes;
+            this.offset = offset;
+        }
+    }
+}
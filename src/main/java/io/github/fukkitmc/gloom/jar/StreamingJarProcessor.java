@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Transforms a jar in three stages connected by a bounded queue, so that at most {@code depth} entries
+ * are held in memory at once regardless of the size of the jar
+ *
+ * <ol>
+ *     <li>The calling thread walks the mapped entries and schedules them, blocking while the queue is full</li>
+ *     <li>A pool of workers inflates, transforms and deflates classes</li>
+ *     <li>A single writer takes the results in order, copying unchanged entries as-is</li>
+ * </ol>
+ *
+ * <p>The {@link ClassTransformer} is called from several threads at once, and must be thread safe. A lazily
+ * {@link io.github.fukkitmc.gloom.asm.Illuminate illuminating} transformer names accessors in the order threads first
+ * reach each field, so the output is only reproducible with an illuminator
+ * {@link io.github.fukkitmc.gloom.asm.Illuminate#compile compiled} ahead of time. The output jar is only replaced once
+ * every entry was written
+ */
+public class StreamingJarProcessor {
+
+    private static final CompletableFuture<Result> END = CompletableFuture.completedFuture(null);
+
+    private final ClassTransformer transformer;
+    private final int workers;
+    private final int depth;
+
+    /**
+     * @param transformer The transformer
+     * @param workers     The number of transform workers
+     * @param depth       The maximum number of entries in flight between the stages
+     */
+    public StreamingJarProcessor(ClassTransformer transformer, int workers, int depth) {
+        if (workers < 1 || depth < 1) {
+            throw new IllegalArgumentException("workers and depth must be positive");
+        }
+
+        this.transformer = transformer;
+        this.workers = workers;
+        this.depth = depth;
+    }
+
+    public StreamingJarProcessor(ClassTransformer transformer) {
+        this(transformer, Runtime.getRuntime().availableProcessors(), 64);
+    }
+
+    /**
+     * @param input     The jar to read
+     * @param output    The jar to write
+     * @param additions Called once every class has been transformed, to supply extra entries such as emitted
+     *                  classes. These must not have the same name as an existing entry
+     */
+    public void process(Path input, Path output, Supplier<Map<String, byte[]>> additions) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "Gloom transformer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (MappedJar jar = MappedJar.open(input); RawJarWriter writer = new RawJarWriter(output)) {
+            BlockingQueue<CompletableFuture<Result>> queue = new ArrayBlockingQueue<>(depth);
+            WriterStage stage = new WriterStage(queue, writer);
+            Thread thread = new Thread(stage, "Gloom writer");
+            thread.setDaemon(true);
+            thread.start();
+
+            try {
+                for (MappedJar.Entry entry : jar.getEntries()) {
+                    if (stage.failure != null) {
+                        break;
+                    }
+
+                    if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                        queue.put(CompletableFuture.completedFuture(new Result(entry, null)));
+                    } else {
+                        queue.put(CompletableFuture.supplyAsync(() -> transform(entry), pool));
+                    }
+                }
+            } finally {
+                putUninterruptibly(queue, END);
+                joinUninterruptibly(thread);
+            }
+
+            if (stage.failure instanceof IOException) {
+                throw (IOException) stage.failure;
+            } else if (stage.failure instanceof RuntimeException) {
+                throw (RuntimeException) stage.failure;
+            } else if (stage.failure instanceof Error) {
+                throw (Error) stage.failure;
+            }
+
+            List<CompletableFuture<RawJarWriter.Compressed>> added = new ArrayList<>();
+            additions.get().forEach((name, bytes) -> added.add(CompletableFuture.supplyAsync(() -> RawJarWriter.compress(name, bytes, false), pool)));
+
+            for (CompletableFuture<RawJarWriter.Compressed> future : added) {
+                writer.write(JarProcessor.join(future), null);
+            }
+
+            writer.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while transforming " + input);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result transform(MappedJar.Entry entry) {
+        String name = entry.getName();
+        byte[] transformed;
+
+        try {
+            transformed = transformer.transform(name.substring(0, name.length() - 6), entry.read());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (transformed == null) {
+            return new Result(entry, null);
+        }
+
+        return new Result(entry, RawJarWriter.compress(name, transformed, entry.getMethod() == MappedJar.STORED));
+    }
+
+    private static void putUninterruptibly(BlockingQueue<CompletableFuture<Result>> queue, CompletableFuture<Result> future) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                queue.put(future);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Result {
+
+        final MappedJar.Entry entry;
+        final RawJarWriter.Compressed compressed;
+
+        Result(MappedJar.Entry entry, RawJarWriter.Compressed compressed) {
+            this.entry = entry;
+            this.compressed = compressed;
+        }
+    }
+
+    private static class WriterStage implements Runnable {
+
+        private final BlockingQueue<CompletableFuture<Result>> queue;
+        private final RawJarWriter writer;
+        volatile Throwable failure;
+
+        WriterStage(BlockingQueue<CompletableFuture<Result>> queue, RawJarWriter writer) {
+            this.queue = queue;
+            this.writer = writer;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                CompletableFuture<Result> future;
+
+                try {
+                    future = queue.take();
+                } catch (InterruptedException e) {
+                    failure = new InterruptedIOException("Writer interrupted");
+                    continue;
+                }
+
+                if (future == END) {
+                    break;
+                }
+
+                // Keep draining after a failure, so the reader never blocks
+                if (failure != null) {
+                    continue;
+                }
+
+                try {
+                    Result result = JarProcessor.join(future);
+
+                    if (result.compressed == null) {
+                        writer.copy(result.entry);
+                    } else {
+                        writer.write(result.compressed, result.entry);
+                    }
+                } catch (IOException | RuntimeException | Error e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+}
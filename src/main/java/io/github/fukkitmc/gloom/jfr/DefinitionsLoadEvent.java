@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * {@link io.github.fukkitmc.gloom.definitions.GloomDefinitions Definitions} being loaded
+ */
+@Name("io.github.fukkitmc.gloom.DefinitionsLoad")
+@Label("Gloom Definitions Load")
+@Category(Events.CATEGORY)
+@StackTrace(false)
+public class DefinitionsLoadEvent extends Event {
+
+    @Label("Source")
+    @Description("The kind of source, such as json or index")
+    public String source;
+
+    @Label("Size")
+    @Description("The size of the source")
+    @DataAmount
+    public long size;
+
+    @Label("Definitions")
+    @Description("The number of class definitions")
+    public int definitions;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A {@link io.github.fukkitmc.gloom.definitions.ClassDefinition class definition} being merged into
+ * {@link io.github.fukkitmc.gloom.definitions.GloomDefinitions definitions}
+ */
+@Name("io.github.fukkitmc.gloom.DefinitionsMerge")
+@Label("Gloom Definitions Merge")
+@Category(Events.CATEGORY)
+@StackTrace(false)
+public class DefinitionsMergeEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Definitions")
+    @Description("The number of class definitions after merging")
+    public int definitions;
+}
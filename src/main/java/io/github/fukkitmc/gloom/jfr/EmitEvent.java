@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A class being emitted by an {@link io.github.fukkitmc.gloom.emitter.Emitter}
+ */
+@Name("io.github.fukkitmc.gloom.Emit")
+@Label("Gloom Emit")
+@Category(Events.CATEGORY)
+@StackTrace(false)
+public class EmitEvent extends Event {
+
+    @Label("Kind")
+    @Description("mixin, interface or holder")
+    public String kind;
+
+    @Label("Class")
+    @Description("The emitted class")
+    public String className;
+
+    @Label("Target")
+    public String target;
+
+    @Label("Accessors")
+    @Description("The number of emitted accessors")
+    public int accessors;
+
+    @Label("Size")
+    @Description("The size of the emitted class file")
+    @DataAmount
+    public long size;
+}
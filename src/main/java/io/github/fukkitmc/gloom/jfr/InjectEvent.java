@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A class being injected by {@link io.github.fukkitmc.gloom.asm.GloomInjector}, lasting the whole pass over the class
+ */
+@Name("io.github.fukkitmc.gloom.Inject")
+@Label("Gloom Inject")
+@Category(Events.CATEGORY)
+@StackTrace(false)
+public class InjectEvent extends Event {
+
+    private static final EventType TYPE = EventType.getEventType(InjectEvent.class);
+
+    @Label("Class")
+    public String className;
+
+    @Label("Synthetic Fields")
+    public int syntheticFields;
+
+    @Label("Synthetic Methods")
+    public int syntheticMethods;
+
+    @Label("Input Size")
+    @Description("The size of the class file read, or 0 if it was not read from bytes")
+    @DataAmount
+    public long inputSize;
+
+    @Label("Output Size")
+    @Description("The size of the class file written, or 0 if it was left unchanged or not written")
+    @DataAmount
+    public long outputSize;
+
+    /**
+     * @return Whether a recording enables the event, checked before creating one which outlives a method call
+     */
+    public static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A class being transformed by a {@link io.github.fukkitmc.gloom.jar.GloomClassTransformer}
+ */
+@Name("io.github.fukkitmc.gloom.Transform")
+@Label("Gloom Transform")
+@Category(Events.CATEGORY)
+@StackTrace(false)
+public class TransformEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Input Size")
+    @DataAmount
+    public long inputSize;
+
+    @Label("Output Size")
+    @Description("The size of the transformed class, or 0 if it was left unchanged")
+    @DataAmount
+    public long outputSize;
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Java Flight Recorder events of Gloom's transform and emission phases
+ *
+ * <p>Recording requires a runtime with {@code jdk.jfr}. Callers check {@link io.github.fukkitmc.gloom.jfr.Events#AVAILABLE}
+ * before touching an event, so the event classes are never loaded without it. When JFR is not recording, the
+ * events are not committed, and the allocation of events kept in locals is usually eliminated by the JIT. Visitors
+ * keep their event in a field across calls, so they also check that the event is enabled before creating it
+ */
+package io.github.fukkitmc.gloom.jfr;
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.runtime;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Access counters of synthetic members, bumped by accessors and trampolines emitted in profiling mode
+ *
+ * <p>Trampolines of synthetic methods are keyed as {@code owner.name:descriptor}, where the owner is the class the
+ * member is defined on, and accessors of synthetic fields as {@code owner.name:descriptor/access}, where the access is
+ * {@code get}, {@code set} or the atomic operation's method. Direct field accesses are not counted. Each counter is a
+ * {@link LongAdder}, which stripes its cells so concurrent accesses rarely contend
+ */
+public final class AccessCounters {
+
+    public static final String OBJECT_NAME = "io.github.fukkitmc.gloom:type=AccessCounters";
+
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private AccessCounters() {
+    }
+
+    /**
+     * Called once per member from the static initializers of generated classes
+     *
+     * @param key The member key
+     * @return The member's counter
+     */
+    public static LongAdder counter(String key) {
+        return COUNTERS.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    /**
+     * @param key The member key
+     * @return The number of accesses of the member, or 0 if it has never been initialized
+     */
+    public static long get(String key) {
+        LongAdder counter = COUNTERS.get(key);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return The number of accesses of every counted member, sorted by member
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        COUNTERS.forEach((key, counter) -> snapshot.put(key, counter.sum()));
+        return snapshot;
+    }
+
+    public static void reset() {
+        COUNTERS.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Registers the counters with the platform MBean server, if they are not registered already
+     */
+    public static synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new Bean(), name);
+        }
+    }
+
+    private static class Bean implements AccessCountersMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return snapshot();
+        }
+
+        @Override
+        public long getCount(String key) {
+            return get(key);
+        }
+
+        @Override
+        public void reset() {
+            AccessCounters.reset();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.runtime;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link AccessCounters}, registered under {@link AccessCounters#OBJECT_NAME}
+ */
+public interface AccessCountersMXBean {
+
+    /**
+     * @return The number of accesses of every counted member, keyed by member
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @param key The member key
+     * @return The number of accesses of the member
+     */
+    long getCount(String key);
+
+    void reset();
+}
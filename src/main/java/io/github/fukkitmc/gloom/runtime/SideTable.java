@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent table of synthetic instance state, keyed weakly by identity, for targets which cannot be mixed into
+ *
+ * <p>Each key has a record of slots, one per synthetic field stored in the table, starting out with the table's
+ * defaults. Slots can also be updated atomically. The table is split into segments by identity hash: lookups never
+ * lock, while creating a record locks only its segment, which is also when the records of collected keys are dropped
+ */
+public final class SideTable {
+
+    private static final int SEGMENT_BITS = 5;
+
+    private final Object[] defaults;
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * @param defaults The initial value of each slot, boxed
+     */
+    public SideTable(Object[] defaults) {
+        this.defaults = defaults.clone();
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @param key  The instance
+     * @param slot The slot
+     * @return The slot's value for the instance, or its default if it has never been set
+     */
+    public Object get(Object key, int slot) {
+        int hash = hash(Objects.requireNonNull(key, "key"));
+        Entry entry = segmentFor(hash).find(key, hash);
+        return entry == null ? defaults[slot] : entry.slots.get(slot);
+    }
+
+    /**
+     * @param key   The instance
+     * @param slot  The slot
+     * @param value The slot's new value for the instance
+     */
+    public void set(Object key, int slot, Object value) {
+        slots(key).set(slot, value);
+    }
+
+    /**
+     * @param key   The instance
+     * @param slot  The slot
+     * @param value The slot's new value for the instance
+     * @return The slot's previous value
+     */
+    public Object getAndSet(Object key, int slot, Object value) {
+        return slots(key).getAndSet(slot, value);
+    }
+
+    /**
+     * Compares by identity, for slots of reference fields
+     *
+     * @param key      The instance
+     * @param slot     The slot
+     * @param expected The expected value
+     * @param value    The slot's new value for the instance
+     * @return Whether the slot held the expected value, and was set
+     */
+    public boolean compareAndSet(Object key, int slot, Object expected, Object value) {
+        return slots(key).compareAndSet(slot, expected, value);
+    }
+
+    /**
+     * Compares boxes by {@link Object#equals value}, for slots of primitive fields
+     *
+     * @param key      The instance
+     * @param slot     The slot
+     * @param expected The expected value, boxed
+     * @param value    The slot's new value for the instance, boxed
+     * @return Whether the slot held the expected value, and was set
+     */
+    public boolean compareAndSetValue(Object key, int slot, Object expected, Object value) {
+        AtomicReferenceArray<Object> slots = slots(key);
+
+        while (true) {
+            Object current = slots.get(slot);
+
+            if (!current.equals(expected)) {
+                return false;
+            }
+
+            if (slots.compareAndSet(slot, current, value)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param key   The instance
+     * @param slot  The slot, of a numeric or {@code char} field
+     * @param delta The value to add, boxed like the slot's value
+     * @return The slot's previous value
+     */
+    public Object getAndAdd(Object key, int slot, Object delta) {
+        AtomicReferenceArray<Object> slots = slots(key);
+
+        while (true) {
+            Object current = slots.get(slot);
+
+            if (slots.compareAndSet(slot, current, add(current, delta))) {
+                return current;
+            }
+        }
+    }
+
+    private AtomicReferenceArray<Object> slots(Object key) {
+        // A null key would never be cleared, and so never expunged
+        int hash = hash(Objects.requireNonNull(key, "key"));
+        Segment segment = segmentFor(hash);
+        Entry entry = segment.find(key, hash);
+
+        if (entry == null) {
+            entry = segment.create(key, hash, defaults);
+        }
+
+        return entry.slots;
+    }
+
+    private static Object add(Object value, Object delta) {
+        if (value instanceof Integer) {
+            return (Integer) value + (Integer) delta;
+        } else if (value instanceof Long) {
+            return (Long) value + (Long) delta;
+        } else if (value instanceof Double) {
+            return (Double) value + (Double) delta;
+        } else if (value instanceof Float) {
+            return (Float) value + (Float) delta;
+        } else if (value instanceof Short) {
+            return (short) ((Short) value + (Short) delta);
+        } else if (value instanceof Byte) {
+            return (byte) ((Byte) value + (Byte) delta);
+        } else if (value instanceof Character) {
+            return (char) ((Character) value + (Character) delta);
+        }
+
+        throw new IllegalArgumentException("Cannot add to " + value);
+    }
+
+    /**
+     * @return The number of instances with a record, including collected ones not dropped yet
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+
+        return size;
+    }
+
+    private static int hash(Object key) {
+        int h = System.identityHashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        // The top bit of an identity hash is always clear, and buckets use the low bits, so the hash is mixed first
+        return segments[(hash * 0x9E3779B9) >>> (32 - SEGMENT_BITS)];
+    }
+
+    private static final class Entry extends WeakReference<Object> {
+
+        final int hash;
+        final Entry next;
+        final AtomicReferenceArray<Object> slots;
+
+        Entry(Object key, int hash, Entry next, AtomicReferenceArray<Object> slots, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = hash;
+            this.next = next;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Segment {
+
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+        // Buckets are replaced rather than mutated, so readers always see a consistent chain
+        private volatile Entry[] table = new Entry[8];
+        volatile int count;
+
+        Entry find(Object key, int hash) {
+            Entry[] table = this.table;
+
+            for (Entry entry = table[hash & (table.length - 1)]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.get() == key) {
+                    return entry;
+                }
+            }
+
+            return null;
+        }
+
+        synchronized Entry create(Object key, int hash, Object[] defaults) {
+            Entry existing = find(key, hash);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            expunge();
+            Entry[] table = this.table;
+
+            if (count >= table.length * 3 / 4) {
+                table = resize(table);
+            }
+
+            int index = hash & (table.length - 1);
+            Entry entry = new Entry(key, hash, table[index], new AtomicReferenceArray<>(defaults), queue);
+            table[index] = entry;
+            count++;
+            // Publishes the new bucket
+            this.table = table;
+            return entry;
+        }
+
+        private Entry[] resize(Entry[] table) {
+            Entry[] resized = new Entry[table.length * 2];
+
+            for (Entry head : table) {
+                for (Entry entry = head; entry != null; entry = entry.next) {
+                    Object key = entry.get();
+
+                    if (key != null) {
+                        int index = entry.hash & (resized.length - 1);
+                        resized[index] = new Entry(key, entry.hash, resized[index], entry.slots, queue);
+                    } else {
+                        count--;
+                    }
+                }
+            }
+
+            return resized;
+        }
+
+        private void expunge() {
+            Reference<?> stale;
+
+            while ((stale = queue.poll()) != null) {
+                Entry[] table = this.table;
+                int index = ((Entry) stale).hash & (table.length - 1);
+                Entry head = table[index];
+                Entry entry = head;
+
+                while (entry != null && entry != stale) {
+                    entry = entry.next;
+                }
+
+                // Resizing already dropped it
+                if (entry == null) {
+                    continue;
+                }
+
+                // Entries are immutable, so the chain before the stale entry is copied
+                Entry rebuilt = entry.next;
+                count--;
+
+                for (Entry e = head; e != stale; e = e.next) {
+                    Object key = e.get();
+
+                    if (key != null) {
+                        rebuilt = new Entry(key, e.hash, rebuilt, e.slots, queue);
+                    } else {
+                        count--;
+                    }
+                }
+
+                table[index] = rebuilt;
+                this.table = table;
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 ramidzkh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.fukkitmc.gloom.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed access to synthetic members for code which cannot be compiled against the generated classes, bound once
+ * through method handles instead of going through reflection on every call
+ *
+ * <p>Members are addressed by their target class and name, as described by a table generated at build time, and
+ * inherited members are found through super classes. Handles are cached per requested class and member, and
+ * {@link #bind(Class, MethodHandle) bound} interfaces are spun with {@link LambdaMetafactory}, so hot paths get close
+ * to a direct call. Handles and bound interfaces kept in {@code static final} fields are constant folded by the JIT
+ */
+public final class SyntheticMembers {
+
+    /**
+     * Where the build conventionally puts the table
+     */
+    public static final String RESOURCE = "META-INF/gloom/synthetic-members.properties";
+
+    private static final MethodHandle[] INVOKERS = new MethodHandle[3];
+
+    static {
+        try {
+            for (int arity = 0; arity < INVOKERS.length; arity++) {
+                MethodType type = MethodType.genericMethodType(arity).insertParameterTypes(0, MethodHandle.class);
+                INVOKERS[arity] = MethodHandles.publicLookup().findStatic(Invokers.class, "invoke", type);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandles.Lookup lookup;
+    private final Map<String, String> table;
+    private final ClassValue<Members> members = new ClassValue<Members>() {
+        @Override
+        protected Members computeValue(Class<?> type) {
+            return new Members();
+        }
+    };
+
+    /**
+     * @param lookup A full privilege lookup which can access the targets and generated classes
+     * @param table  The table entries
+     */
+    public SyntheticMembers(MethodHandles.Lookup lookup, Map<String, String> table) {
+        this.lookup = lookup;
+        this.table = new HashMap<>(table);
+    }
+
+    /**
+     * @param lookup A full privilege lookup which can access the targets and generated classes
+     * @param stream The table, as properties
+     * @return The facade
+     */
+    public static SyntheticMembers load(MethodHandles.Lookup lookup, InputStream stream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(stream);
+        Map<String, String> table = new HashMap<>();
+
+        for (String key : properties.stringPropertyNames()) {
+            table.put(key, properties.getProperty(key));
+        }
+
+        return new SyntheticMembers(lookup, table);
+    }
+
+    /**
+     * @param target The class declaring the field, or a subclass
+     * @param name   The field's name
+     * @return A handle reading the field, taking the receiver for instance fields
+     * @throws IllegalArgumentException If there is no such synthetic field
+     */
+    public MethodHandle findGetter(Class<?> target, String name) {
+        Map<String, MethodHandle> getters = members.get(target).getters;
+        MethodHandle handle = getters.get(name);
+        return handle != null ? handle : cache(getters, name, find(target, "get:", name));
+    }
+
+    /**
+     * @param target The class declaring the field, or a subclass
+     * @param name   The field's name
+     * @return A handle writing the field, taking the receiver first for instance fields
+     * @throws IllegalArgumentException If there is no such writable synthetic field
+     */
+    public MethodHandle findSetter(Class<?> target, String name) {
+        Map<String, MethodHandle> setters = members.get(target).setters;
+        MethodHandle handle = setters.get(name);
+        return handle != null ? handle : cache(setters, name, find(target, "set:", name));
+    }
+
+    /**
+     * @param target The class declaring the method, or a subclass
+     * @param name   The method's name
+     * @param type   The method's type, without the receiver
+     * @return A handle invoking the method's redirect, taking the receiver first for instance methods
+     * @throws IllegalArgumentException If there is no such synthetic method
+     */
+    public MethodHandle findMethod(Class<?> target, String name, MethodType type) {
+        Map<MethodType, MethodHandle> methods = members.get(target).methods.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        MethodHandle handle = methods.get(type);
+        return handle != null ? handle : cache(methods, type, find(target, "invoke:", name + type.toMethodDescriptorString()));
+    }
+
+    /**
+     * Binds a field getter to a functional interface, such as {@code ToIntFunction<Entity>}
+     */
+    public <F> F bindGetter(Class<?> target, String name, Class<F> type) {
+        return bind(type, findGetter(target, name));
+    }
+
+    /**
+     * Binds a field setter to a functional interface, such as {@code ObjIntConsumer<Entity>}
+     */
+    public <F> F bindSetter(Class<?> target, String name, Class<F> type) {
+        return bind(type, findSetter(target, name));
+    }
+
+    /**
+     * Binds a handle to a functional interface. Direct method handles are spun into a class calling them directly.
+     * Field and constant handles, which {@link LambdaMetafactory} cannot call, are captured by a class spun over one
+     * of the {@link Invokers}. Only other handles taking more than two arguments go through a proxy
+     *
+     * @param type   The functional interface
+     * @param handle The handle, whose arguments and result are boxed or unboxed to the interface's method as needed
+     * @return The interface instance
+     */
+    public <F> F bind(Class<F> type, MethodHandle handle) {
+        Method method = findAbstractMethod(type);
+        MethodType erased = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+
+        try {
+            try {
+                CallSite site = LambdaMetafactory.metafactory(lookup, method.getName(), MethodType.methodType(type), erased, handle, instantiate(erased, handle.type()));
+                return type.cast(site.getTarget().invoke());
+            } catch (LambdaConversionException | IllegalArgumentException e) {
+                // Not a direct handle to a method
+            }
+
+            int arity = handle.type().parameterCount();
+
+            if (arity >= INVOKERS.length || arity != erased.parameterCount()) {
+                return MethodHandleProxies.asInterfaceInstance(type, handle);
+            }
+
+            MethodHandle invoker = INVOKERS[arity];
+            CallSite site = LambdaMetafactory.metafactory(lookup, method.getName(), MethodType.methodType(type, MethodHandle.class), erased, invoker, instantiate(erased, invoker.type().dropParameterTypes(0, 1)));
+            return type.cast(site.getTarget().invoke(handle));
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to bind " + handle + " to " + type.getName(), t);
+        }
+    }
+
+    private static Method findAbstractMethod(Class<?> type) {
+        Method found = null;
+
+        for (Method method : type.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers()) && !isObjectMethod(method)) {
+                if (found != null) {
+                    throw new IllegalArgumentException(type.getName() + " is not a functional interface");
+                }
+
+                found = method;
+            }
+        }
+
+        if (!type.isInterface() || found == null) {
+            throw new IllegalArgumentException(type.getName() + " is not a functional interface");
+        }
+
+        return found;
+    }
+
+    private static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The interface's method type with its reference types narrowed to the handle's, boxed where the handle
+     * takes or returns primitives
+     */
+    private static MethodType instantiate(MethodType erased, MethodType actual) {
+        if (erased.parameterCount() != actual.parameterCount()) {
+            throw new IllegalArgumentException("Cannot adapt " + actual + " to " + erased);
+        }
+
+        Class<?>[] parameters = new Class<?>[erased.parameterCount()];
+
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = erased.parameterType(i).isPrimitive() ? erased.parameterType(i) : wrap(actual.parameterType(i));
+        }
+
+        Class<?> returnType = erased.returnType().isPrimitive() ? erased.returnType() : wrap(actual.returnType());
+        return MethodType.methodType(returnType, parameters);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private static <K> MethodHandle cache(Map<K, MethodHandle> handles, K key, MethodHandle handle) {
+        MethodHandle previous = handles.putIfAbsent(key, handle);
+        return previous == null ? handle : previous;
+    }
+
+    /**
+     * Resolves a member the first time it is requested through a class, walking up its super classes
+     */
+    private MethodHandle find(Class<?> target, String prefix, String member) {
+        for (Class<?> c = target; c != null; c = c.getSuperclass()) {
+            String entry = table.get(prefix + c.getName().replace('.', '/') + "." + member);
+
+            if (entry != null) {
+                return resolve(c, entry);
+            }
+        }
+
+        throw new IllegalArgumentException("No synthetic member " + prefix + member + " in " + target.getName());
+    }
+
+    private MethodHandle resolve(Class<?> target, String entry) {
+        ClassLoader loader = target.getClassLoader();
+
+        if (entry.startsWith("constant ")) {
+            // The value may contain spaces
+            String[] parts = entry.split(" ", 3);
+            return MethodHandles.constant(fieldType(parts[1], loader), parseConstant(parts[1], parts.length > 2 ? parts[2] : ""));
+        }
+
+        String[] parts = entry.split(" ", 4);
+
+        try {
+            Class<?> owner = lookup.findClass(parts[1].replace('/', '.'));
+            String name = parts[2];
+            String descriptor = parts[3];
+
+            switch (parts[0]) {
+                case "static":
+                    return lookup.findStatic(owner, name, MethodType.fromMethodDescriptorString(descriptor, loader));
+                case "virtual":
+                    return lookup.findVirtual(owner, name, MethodType.fromMethodDescriptorString(descriptor, loader));
+                case "getstatic":
+                    return lookup.findStaticGetter(owner, name, fieldType(descriptor, loader));
+                case "putstatic":
+                    return lookup.findStaticSetter(owner, name, fieldType(descriptor, loader));
+                case "getfield":
+                    return lookup.findGetter(owner, name, fieldType(descriptor, loader));
+                case "putfield":
+                    return lookup.findSetter(owner, name, fieldType(descriptor, loader));
+                default:
+                    throw new IllegalArgumentException("Unknown synthetic member kind in " + entry);
+            }
+        } catch (ReflectiveOperationException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Failed to resolve " + entry, e);
+        }
+    }
+
+    private static Class<?> fieldType(String descriptor, ClassLoader loader) {
+        return MethodType.fromMethodDescriptorString("()" + descriptor, loader).returnType();
+    }
+
+    private static Object parseConstant(String descriptor, String value) {
+        switch (descriptor) {
+            case "Z":
+                return Integer.parseInt(value) != 0;
+            case "C":
+                return (char) Integer.parseInt(value);
+            case "B":
+                return (byte) Integer.parseInt(value);
+            case "S":
+                return (short) Integer.parseInt(value);
+            case "I":
+                return Integer.parseInt(value);
+            case "J":
+                return Long.parseLong(value);
+            case "F":
+                return Float.parseFloat(value);
+            case "D":
+                return Double.parseDouble(value);
+            default:
+                return value;
+        }
+    }
+
+    private static final class Members {
+
+        final Map<String, MethodHandle> getters = new ConcurrentHashMap<>();
+        final Map<String, MethodHandle> setters = new ConcurrentHashMap<>();
+        final Map<String, Map<MethodType, MethodHandle>> methods = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Calls captured field and constant handles from {@link #bind bound} interfaces. Public, so that the interfaces
+     * can be spun with any lookup, and not meant to be called directly
+     */
+    public static final class Invokers {
+
+        private Invokers() {
+        }
+
+        public static Object invoke(MethodHandle handle) throws Throwable {
+            return handle.invoke();
+        }
+
+        public static Object invoke(MethodHandle handle, Object a) throws Throwable {
+            return handle.invoke(a);
+        }
+
+        public static Object invoke(MethodHandle handle, Object a, Object b) throws Throwable {
+            return handle.invoke(a, b);
+        }
+    }
+}